@@ -0,0 +1,54 @@
+alter table mos_bucket add redirect_visit bit(1) default 0;
+
+CREATE TABLE `mos_audit_rollup` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `bucket_id` bigint(20) DEFAULT NULL,
+  `type` varchar(20) DEFAULT NULL,
+  `stat_unit` varchar(20) DEFAULT NULL,
+  `stat_time` datetime DEFAULT NULL,
+  `bytes` bigint(20) DEFAULT 0,
+  `requests` bigint(20) DEFAULT 0,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `bucket_type_unit_time` (`bucket_id`,`type`,`stat_unit`,`stat_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+insert into mos_audit_rollup (bucket_id,type,stat_unit,stat_time,bytes,requests)
+select bucket_id,type,'hour',DATE_FORMAT(created_date,'%Y-%m-%d %H:00:00'),sum(case when bytes > 0 then bytes else 0 end),count(0)
+from mos_audit where bucket_id is not null group by bucket_id,type,DATE_FORMAT(created_date,'%Y-%m-%d %H:00:00');
+
+insert into mos_audit_rollup (bucket_id,type,stat_unit,stat_time,bytes,requests)
+select bucket_id,type,'day',DATE(created_date),sum(case when bytes > 0 then bytes else 0 end),count(0)
+from mos_audit where bucket_id is not null group by bucket_id,type,DATE(created_date);
+
+-- mos_audit按月分区，从最早的审计到当前月份每月一个分区，p_future中没有已有数据，
+-- 之后的分区由服务端定时从p_future拆分和清理（mos.server.audit-retention-months）
+ALTER TABLE mos_audit DROP FOREIGN KEY `PK_mos_audit_bucket_id_mos_bucket_id`;
+ALTER TABLE mos_audit DROP PRIMARY KEY, ADD PRIMARY KEY (`id`, `created_date`);
+ALTER TABLE mos_audit MODIFY COLUMN `created_date` datetime NOT NULL;
+DROP PROCEDURE IF EXISTS mos_partition_audit;
+DELIMITER //
+CREATE PROCEDURE mos_partition_audit()
+BEGIN
+    DECLARE partition_month DATE DEFAULT DATE_FORMAT(IFNULL((SELECT MIN(created_date) FROM mos_audit), NOW()), '%Y-%m-01');
+    DECLARE this_month DATE DEFAULT DATE_FORMAT(NOW(), '%Y-%m-01');
+    DECLARE partitions TEXT DEFAULT '';
+    WHILE partition_month <= this_month DO
+        SET partitions = CONCAT(partitions, 'PARTITION p', DATE_FORMAT(partition_month, '%Y%m'),
+            ' VALUES LESS THAN (TO_DAYS(''', DATE_ADD(partition_month, INTERVAL 1 MONTH), ''')),');
+        SET partition_month = DATE_ADD(partition_month, INTERVAL 1 MONTH);
+    END WHILE;
+    SET @partition_ddl = CONCAT('ALTER TABLE mos_audit PARTITION BY RANGE (TO_DAYS(created_date)) (', partitions, 'PARTITION p_future VALUES LESS THAN MAXVALUE)');
+    PREPARE partition_stmt FROM @partition_ddl;
+    EXECUTE partition_stmt;
+    DEALLOCATE PREPARE partition_stmt;
+END //
+DELIMITER ;
+CALL mos_partition_audit();
+DROP PROCEDURE mos_partition_audit;
+
+-- mos_resource全路径索引：md5(bucket_id:lower(pathname))，按pathname一次查询资源
+-- pathname转为小写后计算，与原先按文件夹和文件名查询时不区分大小写的排序规则一致；
+-- 同一文件夹下只有大小写不同的资源文件会导致唯一索引创建失败，升级前需要先处理
+alter table mos_resource add pathname_hash varchar(32) default null;
+update mos_resource r join mos_dir d on r.dir_id = d.id set r.pathname_hash = md5(concat(d.bucket_id, ':', lower(replace(concat(d.path, '/', r.name), '//', '/'))));
+alter table mos_resource add unique key `pathname_hash` (`pathname_hash`);
@@ -0,0 +1,36 @@
+package mt.spring.mos.base.stream;
+
+import mt.spring.mos.base.utils.BufferPool;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 缓冲区取自BufferPool的BufferedInputStream，close时归还
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+public class PooledBufferedInputStream extends BufferedInputStream {
+	private final BufferPool.PooledBuffer<byte[]> pooledBuffer;
+
+	public PooledBufferedInputStream(InputStream in, int size) {
+		this(in, BufferPool.acquireHeap(size));
+	}
+
+	private PooledBufferedInputStream(InputStream in, BufferPool.PooledBuffer<byte[]> pooledBuffer) {
+		super(in, 1);
+		this.pooledBuffer = pooledBuffer;
+		this.buf = pooledBuffer.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			pooledBuffer.close();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package mt.spring.mos.base.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓冲区池，按2的幂划分大小等级，分别缓存堆内和堆外缓冲区
+ * <p>
+ * 可通过系统属性调整：
+ * mos.buffer.copy-size 流拷贝缓冲区大小，默认64KB
+ * mos.buffer.max-pooled 每个大小等级最多缓存的缓冲区数量，默认32
+ * mos.buffer.leak-detection 是否记录申请位置用于泄漏排查，默认false
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Slf4j
+public class BufferPool {
+	public static final int KB = 1024;
+	/**
+	 * 最小的大小等级
+	 */
+	private static final int MIN_SHIFT = 12;
+	/**
+	 * 最大的大小等级，超过的不入池
+	 */
+	private static final int MAX_SHIFT = 23;
+	/**
+	 * 入池的最大缓冲区大小，超过的每次按实际大小分配
+	 */
+	public static final int MAX_POOLED_SIZE = 1 << MAX_SHIFT;
+	public static final int COPY_BUFFER_SIZE = Integer.getInteger("mos.buffer.copy-size", 64 * KB);
+	private static final int MAX_POOLED = Integer.getInteger("mos.buffer.max-pooled", 32);
+	private static final boolean LEAK_DETECTION = Boolean.getBoolean("mos.buffer.leak-detection");
+
+	private static final SizeClass<byte[]>[] HEAP = newSizeClasses();
+	private static final SizeClass<ByteBuffer>[] DIRECT = newSizeClasses();
+	private static final ReferenceQueue<PooledBuffer<?>> LEAK_QUEUE = new ReferenceQueue<>();
+	private static final Map<LeakTracker, Boolean> TRACKERS = new ConcurrentHashMap<>();
+
+	/**
+	 * 申请堆内缓冲区，返回的数组长度不小于size
+	 *
+	 * @param size 最小大小
+	 * @return 缓冲区，使用完需close归还
+	 */
+	public static PooledBuffer<byte[]> acquireHeap(int size) {
+		int index = indexOf(size);
+		byte[] buffer = index < 0 ? null : HEAP[index].poll();
+		if (buffer == null) {
+			buffer = new byte[index < 0 ? size : 1 << (index + MIN_SHIFT)];
+		}
+		return new PooledBuffer<>(buffer, index < 0 ? null : HEAP[index]);
+	}
+
+	/**
+	 * 申请堆外缓冲区，返回的缓冲区已clear，limit为size
+	 *
+	 * @param size 大小
+	 * @return 缓冲区，使用完需close归还
+	 */
+	public static PooledBuffer<ByteBuffer> acquireDirect(int size) {
+		int index = indexOf(size);
+		ByteBuffer buffer = index < 0 ? null : DIRECT[index].poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(index < 0 ? size : 1 << (index + MIN_SHIFT));
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return new PooledBuffer<>(buffer, index < 0 ? null : DIRECT[index]);
+	}
+
+	private static int indexOf(int size) {
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+		return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> SizeClass<T>[] newSizeClasses() {
+		SizeClass<T>[] sizeClasses = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new SizeClass<>();
+		}
+		return sizeClasses;
+	}
+
+	private static void reportLeaks() {
+		Reference<? extends PooledBuffer<?>> reference;
+		while ((reference = LEAK_QUEUE.poll()) != null) {
+			LeakTracker tracker = (LeakTracker) reference;
+			if (TRACKERS.remove(tracker) != null) {
+				log.warn("缓冲区未归还就被回收，大小：{}", tracker.capacity, tracker.createdAt);
+			}
+		}
+	}
+
+	private static class SizeClass<T> {
+		private final Queue<T> buffers = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		T poll() {
+			T buffer = buffers.poll();
+			if (buffer != null) {
+				size.decrementAndGet();
+			}
+			return buffer;
+		}
+
+		void offer(T buffer) {
+			if (size.incrementAndGet() > MAX_POOLED) {
+				size.decrementAndGet();
+				return;
+			}
+			buffers.offer(buffer);
+		}
+	}
+
+	private static class LeakTracker extends PhantomReference<PooledBuffer<?>> {
+		private final int capacity;
+		private final Throwable createdAt;
+
+		LeakTracker(PooledBuffer<?> referent, int capacity) {
+			super(referent, LEAK_QUEUE);
+			this.capacity = capacity;
+			this.createdAt = LEAK_DETECTION ? new Throwable("缓冲区申请位置") : null;
+		}
+	}
+
+	/**
+	 * 池化的缓冲区，close后归还，不能再使用
+	 */
+	public static class PooledBuffer<T> implements AutoCloseable {
+		private final T buffer;
+		private final SizeClass<T> sizeClass;
+		private final LeakTracker tracker;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private PooledBuffer(T buffer, SizeClass<T> sizeClass) {
+			this.buffer = buffer;
+			this.sizeClass = sizeClass;
+			if (sizeClass != null) {
+				reportLeaks();
+				int capacity = buffer instanceof ByteBuffer ? ((ByteBuffer) buffer).capacity() : ((byte[]) buffer).length;
+				this.tracker = new LeakTracker(this, capacity);
+				TRACKERS.put(tracker, Boolean.TRUE);
+			} else {
+				this.tracker = null;
+			}
+		}
+
+		public T get() {
+			return buffer;
+		}
+
+		@Override
+		public void close() {
+			if (!released.compareAndSet(false, true)) {
+				return;
+			}
+			if (tracker != null) {
+				TRACKERS.remove(tracker);
+				tracker.clear();
+			}
+			if (sizeClass != null) {
+				sizeClass.offer(buffer);
+			}
+		}
+	}
+}
@@ -4,20 +4,22 @@ import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import mt.spring.mos.base.stream.BoundedInputStream;
 import mt.spring.mos.base.stream.ByteBufferInputStream;
+import mt.spring.mos.base.stream.PooledBufferedInputStream;
 import mt.spring.mos.base.stream.RepeatableBoundedFileInputStream;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
-import sun.misc.Cleaner;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import static mt.spring.mos.base.utils.ReflectUtils.getValue;
-
 /**
  * @Author Martin
  * @Date 2020/11/21
@@ -25,6 +27,19 @@ import static mt.spring.mos.base.utils.ReflectUtils.getValue;
 @Slf4j
 public class IOUtils {
 	public static final int MB = 1024 * 1024;
+	/**
+	 * 可重复读流的缓冲区大小
+	 */
+	public static final int REPEATABLE_BUFFER_SIZE = Integer.getInteger("mos.buffer.repeatable-size", 512 * 1024);
+	/**
+	 * 流转换为ByteBuffer时的分片大小
+	 */
+	public static final int BYTE_BUFFER_PART_SIZE = Integer.getInteger("mos.buffer.part-size", 2 * MB);
+	/**
+	 * 文件指纹的采样块数和采样块大小
+	 */
+	private static final int FINGERPRINT_SAMPLES = 16;
+	private static final int FINGERPRINT_SAMPLE_SIZE = 64 * 1024;
 	
 	@Data
 	public static class UploadPart {
@@ -80,6 +95,50 @@ public class IOUtils {
 		return fileSplitResult;
 	}
 	
+	/**
+	 * 文件指纹：对文件大小、修改时间和均匀分布的若干采样块计算md5，不需要读取整个文件，
+	 * 只用于初始化上传时标识上传会话，文件内容由合并时计算的md5校验
+	 *
+	 * @param file 文件
+	 * @return 指纹
+	 * @throws IOException IO异常
+	 */
+	public static String getFingerprint(File file) throws IOException {
+		return getFingerprint(file, null);
+	}
+	
+	/**
+	 * 文件指纹，调用方已知文件md5时一并计入，采样不到的原地修改也能区分
+	 *
+	 * @param file    文件
+	 * @param fileMd5 文件的完整md5，为空时只用采样
+	 * @return 指纹
+	 * @throws IOException IO异常
+	 */
+	public static String getFingerprint(File file, @Nullable String fileMd5) throws IOException {
+		MessageDigest md5 = DigestUtils.getMd5Digest();
+		long length = file.length();
+		md5.update(("fingerprint:" + length + ":" + file.lastModified()).getBytes(StandardCharsets.UTF_8));
+		if (fileMd5 != null) {
+			md5.update((":" + fileMd5.toLowerCase()).getBytes(StandardCharsets.UTF_8));
+		}
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			 BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(FINGERPRINT_SAMPLE_SIZE)) {
+			byte[] buffer = pooledBuffer.get();
+			long sampleSize = Math.min(FINGERPRINT_SAMPLE_SIZE, length);
+			long step = FINGERPRINT_SAMPLES > 1 ? (length - sampleSize) / (FINGERPRINT_SAMPLES - 1) : 0;
+			for (int i = 0; i < FINGERPRINT_SAMPLES; i++) {
+				randomAccessFile.seek(i * step);
+				randomAccessFile.readFully(buffer, 0, (int) sampleSize);
+				md5.update(buffer, 0, (int) sampleSize);
+				if (step == 0) {
+					break;
+				}
+			}
+		}
+		return Hex.encodeHexString(md5.digest());
+	}
+	
 	@Data
 	public static class SplitPart {
 		private long start;
@@ -135,7 +194,7 @@ public class IOUtils {
 			if (original.getWrappedInputStream() instanceof FileInputStream) {
 				repeatable = new RepeatableBoundedFileInputStream(original);
 			} else {
-				repeatable = new BufferedInputStream(original, 512 * 1024);
+				repeatable = new PooledBufferedInputStream(original, REPEATABLE_BUFFER_SIZE);
 			}
 		} else {
 			repeatable = original;
@@ -148,32 +207,25 @@ public class IOUtils {
 	}
 	
 	public static int convertStreamToByteBufferStream(InputStream inputStream, ConvertCallback convertCallback) throws IOException {
-		try {
+		try (BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE);
+			 BufferPool.PooledBuffer<ByteBuffer> pooledByteBuffer = BufferPool.acquireDirect(BYTE_BUFFER_PART_SIZE)) {
 			int read;
 			int i = 0;
-			byte[] buffer = new byte[4096];
-			int partSize = 2 * MB;
-			ByteBuffer byteBuffer = ByteBuffer.allocateDirect(partSize);
-			
-			Cleaner cleaner;
-			try {
-				cleaner = (Cleaner) getValue(byteBuffer, "cleaner");
-			} catch (NoSuchFieldException e) {
-				throw new RuntimeException(e);
-			}
+			byte[] buffer = pooledBuffer.get();
+			ByteBuffer byteBuffer = pooledByteBuffer.get();
 			while ((read = inputStream.read(buffer, 0, Math.min(byteBuffer.remaining(), buffer.length))) != -1) {
 				byteBuffer.put(buffer, 0, read);
 				if (!byteBuffer.hasRemaining()) {
 					try (ByteBufferInputStream byteBufferInputStream = new ByteBufferInputStream(byteBuffer)) {
 						convertCallback.onConvertedChunk(byteBufferInputStream, i);
 					}
+					byteBuffer.limit(BYTE_BUFFER_PART_SIZE);
 					i++;
 				}
 			}
 			try (ByteBufferInputStream byteBufferInputStream = new ByteBufferInputStream(byteBuffer)) {
 				convertCallback.onConvertedChunk(byteBufferInputStream, i);
 			}
-			cleaner.clean();
 			return i + 1;
 		} finally {
 			inputStream.close();
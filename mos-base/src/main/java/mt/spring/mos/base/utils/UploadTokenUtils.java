@@ -0,0 +1,92 @@
+package mt.spring.mos.base.utils;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * 分片直传凭证，服务端签发，存储服务器校验后直接接收分片
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+public class UploadTokenUtils {
+	
+	@Data
+	public static class UploadToken {
+		private Long fileHouseId;
+		private Long bucketId;
+		/**
+		 * 接收分片的存储服务器名称
+		 */
+		private String clientName;
+		/**
+		 * 分片临时目录
+		 */
+		private String chunkTempPath;
+		/**
+		 * 合并后的文件
+		 */
+		private String pathname;
+		/**
+		 * 文件总大小
+		 */
+		private long totalSize;
+		/**
+		 * 过期时间戳，单位毫秒
+		 */
+		private long expires;
+		
+		public String getItemName(int chunkIndex) {
+			return chunkTempPath + "/part" + chunkIndex;
+		}
+	}
+	
+	/**
+	 * 签发凭证，形如base64(payload).sign
+	 */
+	public static String createToken(String key, UploadToken uploadToken) {
+		String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(JSONObject.toJSONString(uploadToken).getBytes(StandardCharsets.UTF_8));
+		return payload + "." + VisitSignUtils.sign(key, payload, uploadToken.getExpires());
+	}
+	
+	/**
+	 * 解析并校验凭证
+	 *
+	 * @return 凭证无效或已过期时返回null
+	 */
+	public static UploadToken parseToken(String key, String token) {
+		if (token == null) {
+			return null;
+		}
+		int index = token.lastIndexOf('.');
+		if (index <= 0) {
+			return null;
+		}
+		String payload = token.substring(0, index);
+		UploadToken uploadToken;
+		try {
+			uploadToken = JSONObject.parseObject(new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8), UploadToken.class);
+		} catch (RuntimeException e) {
+			return null;
+		}
+		if (uploadToken == null || uploadToken.getExpires() < System.currentTimeMillis()) {
+			return null;
+		}
+		String sign = VisitSignUtils.sign(key, payload, uploadToken.getExpires());
+		if (!MessageDigest.isEqual(sign.getBytes(StandardCharsets.UTF_8), token.substring(index + 1).getBytes(StandardCharsets.UTF_8))) {
+			return null;
+		}
+		return uploadToken;
+	}
+	
+	/**
+	 * 存储服务器回报分片时的签名内容
+	 */
+	public static String getReportContent(String token, int chunkIndex, String chunkMd5, long size) {
+		return token + "\n" + chunkIndex + "\n" + chunkMd5 + "\n" + size;
+	}
+}
@@ -0,0 +1,109 @@
+package mt.spring.mos.base.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * 资源访问签名，服务端签发，客户端校验
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+public class VisitSignUtils {
+	public static final String PARAM_EXPIRES = "expires";
+	public static final String PARAM_SIGN = "sign";
+	/**
+	 * 客户端响应的Content-Type，和路径、过期时间一起签名
+	 */
+	public static final String PARAM_CONTENT_TYPE = "responseContentType";
+	private static final String ALGORITHM = "HmacSHA256";
+	
+	/**
+	 * 签名
+	 *
+	 * @param key     签名秘钥
+	 * @param path    客户端资源路径，如/202101/md5
+	 * @param expires 过期时间戳，单位毫秒
+	 * @return 签名
+	 */
+	public static String sign(String key, String path, long expires) {
+		return sign(key, path, expires, null);
+	}
+	
+	/**
+	 * 签名
+	 *
+	 * @param key         签名秘钥
+	 * @param path        客户端资源路径，如/202101/md5
+	 * @param expires     过期时间戳，单位毫秒
+	 * @param contentType 客户端响应的Content-Type，为空不签
+	 * @return 签名
+	 */
+	public static String sign(String key, String path, long expires, @Nullable String contentType) {
+		String content = path + "\n" + expires;
+		if (contentType != null) {
+			content += "\n" + contentType;
+		}
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+			byte[] bytes = mac.doFinal(content.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		} catch (Exception e) {
+			throw new IllegalStateException("签名失败：" + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * 生成签名参数，形如expires=xx&sign=xx
+	 */
+	public static String getSignQuery(String key, String path, long expireSeconds) {
+		return getSignQuery(key, path, expireSeconds, null);
+	}
+	
+	/**
+	 * 生成签名参数，形如expires=xx&sign=xx&responseContentType=xx
+	 *
+	 * @param contentType 客户端响应的Content-Type，为空时不带此参数
+	 */
+	public static String getSignQuery(String key, String path, long expireSeconds, @Nullable String contentType) {
+		long expires = System.currentTimeMillis() + expireSeconds * 1000;
+		String query = PARAM_EXPIRES + "=" + expires + "&" + PARAM_SIGN + "=" + sign(key, path, expires, contentType);
+		if (contentType != null) {
+			try {
+				query += "&" + PARAM_CONTENT_TYPE + "=" + URLEncoder.encode(contentType, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return query;
+	}
+	
+	/**
+	 * 校验签名
+	 */
+	public static boolean verify(String key, String path, String expires, String sign) {
+		return verify(key, path, expires, sign, null);
+	}
+	
+	/**
+	 * 校验签名，contentType为请求中的responseContentType参数，改了或加上未签名的参数都校验失败
+	 */
+	public static boolean verify(String key, String path, String expires, String sign, @Nullable String contentType) {
+		if (expires == null || sign == null || !expires.matches("\\d+")) {
+			return false;
+		}
+		long expiresTime = Long.parseLong(expires);
+		if (expiresTime < System.currentTimeMillis()) {
+			return false;
+		}
+		return MessageDigest.isEqual(sign(key, path, expiresTime, contentType).getBytes(StandardCharsets.UTF_8), sign.getBytes(StandardCharsets.UTF_8));
+	}
+}
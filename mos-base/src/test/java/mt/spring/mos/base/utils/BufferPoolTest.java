@@ -0,0 +1,82 @@
+package mt.spring.mos.base.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/23
+ */
+public class BufferPoolTest {
+	private static final int MB = 1024 * 1024;
+	
+	private int heapLength(int size) {
+		try (BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(size)) {
+			return pooledBuffer.get().length;
+		}
+	}
+	
+	@Test
+	public void testHeapSizeClasses() {
+		assertEquals(4096, heapLength(1));
+		assertEquals(4096, heapLength(4096));
+		assertEquals(8192, heapLength(4097));
+		assertEquals(64 * 1024, heapLength(60 * 1024));
+		assertEquals(8 * MB, heapLength(8 * MB));
+		assertEquals(BufferPool.MAX_POOLED_SIZE, heapLength(BufferPool.MAX_POOLED_SIZE));
+		//超过最大等级的不入池，按实际大小分配
+		assertEquals(8 * MB + 1, heapLength(8 * MB + 1));
+	}
+	
+	@Test
+	public void testHeapReuse() {
+		BufferPool.PooledBuffer<byte[]> first = BufferPool.acquireHeap(3 * MB);
+		byte[] buffer = first.get();
+		first.close();
+		try (BufferPool.PooledBuffer<byte[]> second = BufferPool.acquireHeap(3 * MB + 1)) {
+			assertSame(buffer, second.get());
+		}
+	}
+	
+	@Test
+	public void testCloseTwiceReturnsOnce() {
+		BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(MB + 1);
+		pooledBuffer.close();
+		pooledBuffer.close();
+		try (BufferPool.PooledBuffer<byte[]> first = BufferPool.acquireHeap(MB + 1);
+			 BufferPool.PooledBuffer<byte[]> second = BufferPool.acquireHeap(MB + 1)) {
+			assertNotSame(first.get(), second.get());
+		}
+	}
+	
+	@Test
+	public void testUnpooledNotReused() {
+		BufferPool.PooledBuffer<byte[]> first = BufferPool.acquireHeap(9 * MB);
+		byte[] buffer = first.get();
+		first.close();
+		try (BufferPool.PooledBuffer<byte[]> second = BufferPool.acquireHeap(9 * MB)) {
+			assertNotSame(buffer, second.get());
+		}
+	}
+	
+	@Test
+	public void testDirect() {
+		ByteBuffer buffer;
+		try (BufferPool.PooledBuffer<ByteBuffer> first = BufferPool.acquireDirect(100)) {
+			buffer = first.get();
+			assertTrue(buffer.isDirect());
+			assertEquals(4096, buffer.capacity());
+			assertEquals(0, buffer.position());
+			assertEquals(100, buffer.limit());
+			buffer.put((byte) 1);
+		}
+		try (BufferPool.PooledBuffer<ByteBuffer> second = BufferPool.acquireDirect(200)) {
+			assertSame(buffer, second.get());
+			assertEquals(0, second.get().position());
+			assertEquals(200, second.get().limit());
+		}
+	}
+}
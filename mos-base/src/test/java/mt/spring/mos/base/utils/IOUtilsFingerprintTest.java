@@ -0,0 +1,96 @@
+package mt.spring.mos.base.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/24
+ */
+public class IOUtilsFingerprintTest {
+	private static final long LAST_MODIFIED = 1609459200000L;
+	private File file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("fingerprint", ".dat");
+		byte[] bytes = new byte[3 * 1024 * 1024];
+		new Random(1).nextBytes(bytes);
+		Files.write(file.toPath(), bytes);
+		assertTrue(file.setLastModified(LAST_MODIFIED));
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	private void overwrite(long position, byte value) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.seek(position);
+			randomAccessFile.write(value);
+		}
+		//还原修改时间，只比较内容的变化
+		assertTrue(file.setLastModified(LAST_MODIFIED));
+	}
+	
+	@Test
+	public void testStable() throws IOException {
+		assertEquals(IOUtils.getFingerprint(file), IOUtils.getFingerprint(file));
+		assertEquals(IOUtils.getFingerprint(file), IOUtils.getFingerprint(file, null));
+		assertEquals(IOUtils.getFingerprint(file, "ABCDEF"), IOUtils.getFingerprint(file, "abcdef"));
+	}
+	
+	@Test
+	public void testSampledContentChanged() throws IOException {
+		String fingerprint = IOUtils.getFingerprint(file);
+		//首个采样块从文件开头开始
+		overwrite(0, (byte) ~readByte(0));
+		assertNotEquals(fingerprint, IOUtils.getFingerprint(file));
+	}
+	
+	@Test
+	public void testLengthChanged() throws IOException {
+		String fingerprint = IOUtils.getFingerprint(file);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(file.length() - 1);
+		}
+		assertTrue(file.setLastModified(LAST_MODIFIED));
+		assertNotEquals(fingerprint, IOUtils.getFingerprint(file));
+	}
+	
+	@Test
+	public void testLastModifiedChanged() throws IOException {
+		String fingerprint = IOUtils.getFingerprint(file);
+		assertTrue(file.setLastModified(LAST_MODIFIED + 1000));
+		assertNotEquals(fingerprint, IOUtils.getFingerprint(file));
+	}
+	
+	@Test
+	public void testMd5DistinguishesUnsampledChange() throws IOException {
+		//采样块之间的修改只改变文件md5，不计入md5时指纹相同
+		long position = 64 * 1024 + 1;
+		String fingerprint = IOUtils.getFingerprint(file);
+		String fingerprintWithMd5 = IOUtils.getFingerprint(file, "md5-before");
+		overwrite(position, (byte) ~readByte(position));
+		assertEquals(fingerprint, IOUtils.getFingerprint(file));
+		assertNotEquals(fingerprintWithMd5, IOUtils.getFingerprint(file, "md5-after"));
+		assertNotEquals(fingerprint, fingerprintWithMd5);
+	}
+	
+	private byte readByte(long position) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			randomAccessFile.seek(position);
+			return randomAccessFile.readByte();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package mt.spring.mos.base.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/23
+ */
+public class UploadTokenUtilsTest {
+	private static final String KEY = "test-sign-key";
+	
+	private UploadTokenUtils.UploadToken newToken(long expires) {
+		UploadTokenUtils.UploadToken uploadToken = new UploadTokenUtils.UploadToken();
+		uploadToken.setFileHouseId(1L);
+		uploadToken.setBucketId(2L);
+		uploadToken.setClientName("client-1");
+		uploadToken.setChunkTempPath("/202101/md5-chunks");
+		uploadToken.setPathname("/202101/md5");
+		uploadToken.setTotalSize(1024);
+		uploadToken.setExpires(expires);
+		return uploadToken;
+	}
+	
+	@Test
+	public void testRoundTrip() {
+		UploadTokenUtils.UploadToken uploadToken = newToken(System.currentTimeMillis() + 60000);
+		String token = UploadTokenUtils.createToken(KEY, uploadToken);
+		assertEquals(uploadToken, UploadTokenUtils.parseToken(KEY, token));
+	}
+	
+	@Test
+	public void testExpired() {
+		String token = UploadTokenUtils.createToken(KEY, newToken(System.currentTimeMillis() - 1));
+		assertNull(UploadTokenUtils.parseToken(KEY, token));
+	}
+	
+	@Test
+	public void testWrongKey() {
+		String token = UploadTokenUtils.createToken(KEY, newToken(System.currentTimeMillis() + 60000));
+		assertNull(UploadTokenUtils.parseToken("other-key", token));
+	}
+	
+	@Test
+	public void testTamperedPayload() {
+		String token = UploadTokenUtils.createToken(KEY, newToken(System.currentTimeMillis() + 60000));
+		UploadTokenUtils.UploadToken other = newToken(System.currentTimeMillis() + 60000);
+		other.setFileHouseId(3L);
+		String otherToken = UploadTokenUtils.createToken(KEY, other);
+		//换用其他凭证的签名
+		String tampered = otherToken.substring(0, otherToken.lastIndexOf('.')) + token.substring(token.lastIndexOf('.'));
+		assertNull(UploadTokenUtils.parseToken(KEY, tampered));
+	}
+	
+	@Test
+	public void testMalformed() {
+		assertNull(UploadTokenUtils.parseToken(KEY, null));
+		assertNull(UploadTokenUtils.parseToken(KEY, "no-sign"));
+		assertNull(UploadTokenUtils.parseToken(KEY, "!!!.sign"));
+	}
+}
@@ -0,0 +1,78 @@
+package mt.spring.mos.base.utils;
+
+import org.junit.Test;
+
+import java.net.URLDecoder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/23
+ */
+public class VisitSignUtilsTest {
+	private static final String KEY = "test-sign-key";
+	private static final String PATH = "/202101/md5";
+	
+	@Test
+	public void testRoundTrip() {
+		long expires = System.currentTimeMillis() + 60000;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires);
+		assertTrue(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires), sign));
+		assertFalse(VisitSignUtils.verify(KEY, "/202101/other", String.valueOf(expires), sign));
+		assertFalse(VisitSignUtils.verify("other-key", PATH, String.valueOf(expires), sign));
+		//改了过期时间签名就不匹配
+		assertFalse(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires + 1), sign));
+	}
+	
+	@Test
+	public void testExpired() {
+		long expires = System.currentTimeMillis() - 1;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires);
+		assertFalse(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires), sign));
+	}
+	
+	@Test
+	public void testSignQuery() {
+		String query = VisitSignUtils.getSignQuery(KEY, PATH, 60);
+		String[] params = query.split("&");
+		assertEquals(2, params.length);
+		assertTrue(params[0].startsWith(VisitSignUtils.PARAM_EXPIRES + "="));
+		assertTrue(params[1].startsWith(VisitSignUtils.PARAM_SIGN + "="));
+		String expires = params[0].substring(params[0].indexOf('=') + 1);
+		String sign = params[1].substring(params[1].indexOf('=') + 1);
+		assertTrue(VisitSignUtils.verify(KEY, PATH, expires, sign));
+	}
+	
+	@Test
+	public void testContentTypeSigned() {
+		long expires = System.currentTimeMillis() + 60000;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires, "image/png");
+		assertTrue(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires), sign, "image/png"));
+		assertFalse(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires), sign, "text/html"));
+		assertFalse(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires), sign));
+		//不带Content-Type的签名不能加上Content-Type使用
+		String plainSign = VisitSignUtils.sign(KEY, PATH, expires);
+		assertFalse(VisitSignUtils.verify(KEY, PATH, String.valueOf(expires), plainSign, "text/html"));
+	}
+	
+	@Test
+	public void testSignQueryWithContentType() throws Exception {
+		String query = VisitSignUtils.getSignQuery(KEY, PATH, 60, "text/plain; charset=utf-8");
+		String[] params = query.split("&");
+		assertEquals(3, params.length);
+		String expires = params[0].substring(params[0].indexOf('=') + 1);
+		String sign = params[1].substring(params[1].indexOf('=') + 1);
+		assertTrue(params[2].startsWith(VisitSignUtils.PARAM_CONTENT_TYPE + "="));
+		String contentType = URLDecoder.decode(params[2].substring(params[2].indexOf('=') + 1), "UTF-8");
+		assertEquals("text/plain; charset=utf-8", contentType);
+		assertTrue(VisitSignUtils.verify(KEY, PATH, expires, sign, contentType));
+	}
+	
+	@Test
+	public void testMalformed() {
+		assertFalse(VisitSignUtils.verify(KEY, PATH, null, "sign"));
+		assertFalse(VisitSignUtils.verify(KEY, PATH, "123", null));
+		assertFalse(VisitSignUtils.verify(KEY, PATH, "abc", "sign"));
+	}
+}
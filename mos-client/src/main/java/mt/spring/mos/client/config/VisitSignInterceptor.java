@@ -0,0 +1,48 @@
+package mt.spring.mos.client.config;
+
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.base.utils.VisitSignUtils;
+import mt.spring.mos.client.entity.MosClientProperties;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.net.URLDecoder;
+
+/**
+ * 校验服务端签发的资源访问签名
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Slf4j
+public class VisitSignInterceptor implements HandlerInterceptor {
+	private final MosClientProperties mosClientProperties;
+	
+	public VisitSignInterceptor(MosClientProperties mosClientProperties) {
+		this.mosClientProperties = mosClientProperties;
+	}
+	
+	@Override
+	public boolean preHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull Object handler) throws Exception {
+		String visitSignKey = mosClientProperties.getVisitSignKey();
+		if (StringUtils.isBlank(visitSignKey)) {
+			//未配置秘钥时不校验签名，也不接受指定的Content-Type
+			return true;
+		}
+		String path = request.getRequestURI().substring((request.getContextPath() + "/mos").length());
+		path = URLDecoder.decode(path, "UTF-8");
+		String responseContentType = request.getParameter(VisitSignUtils.PARAM_CONTENT_TYPE);
+		if (!VisitSignUtils.verify(visitSignKey, path, request.getParameter(VisitSignUtils.PARAM_EXPIRES), request.getParameter(VisitSignUtils.PARAM_SIGN), responseContentType)) {
+			log.warn("资源访问签名校验失败：{}", path);
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "签名无效或已过期");
+			return false;
+		}
+		if (StringUtils.isNotBlank(responseContentType)) {
+			response.setContentType(responseContentType);
+		}
+		return true;
+	}
+}
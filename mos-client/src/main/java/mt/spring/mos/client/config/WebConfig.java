@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -49,6 +50,11 @@ public class WebConfig {
 				}
 			}
 			
+			@Override
+			public void addInterceptors(@NotNull InterceptorRegistry registry) {
+				registry.addInterceptor(new VisitSignInterceptor(mosClientProperties)).addPathPatterns("/mos/**");
+			}
+			
 			@Override
 			public void addCorsMappings(CorsRegistry registry) {
 				registry.addMapping("/**").allowedHeaders("GET", "POST", "PUT", "DELETE");
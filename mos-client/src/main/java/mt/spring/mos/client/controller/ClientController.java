@@ -4,10 +4,12 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import mt.spring.mos.base.stream.MosEncodeInputStream;
+import mt.spring.mos.base.utils.UploadTokenUtils;
 import mt.spring.mos.client.entity.MergeResult;
 import mt.spring.mos.client.entity.ResResult;
 import mt.spring.mos.client.entity.dto.MergeFileDto;
 import mt.spring.mos.client.entity.dto.Thumb;
+import mt.spring.mos.client.service.ChunkReportService;
 import mt.spring.mos.client.service.ClientService;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +17,7 @@ import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,6 +35,8 @@ import java.util.Map;
 public class ClientController {
 	@Autowired
 	private ClientService clientService;
+	@Autowired
+	private ChunkReportService chunkReportService;
 	
 	@PostMapping("/upload")
 	@ApiOperation("上传文件")
@@ -41,6 +46,33 @@ public class ClientController {
 		return new ResResult("上传成功");
 	}
 	
+	@PutMapping("/upload")
+	@ApiOperation("上传文件，请求体为文件内容")
+	public ResResult uploadStream(String pathname, HttpServletRequest request) throws IOException {
+		clientService.upload(request.getInputStream(), pathname, Math.max(request.getContentLengthLong(), 0));
+		return new ResResult("上传成功");
+	}
+	
+	@PutMapping("/upload/part")
+	@ApiOperation("预分配上传，分片按偏移写入预分配文件")
+	public ResResult uploadPart(String path, String desPathname, Integer chunkIndex, Long partSize, Long totalSize, HttpServletRequest request) throws IOException {
+		Assert.notNull(chunkIndex, "chunkIndex不能为空");
+		Assert.notNull(partSize, "partSize不能为空");
+		Assert.notNull(totalSize, "totalSize不能为空");
+		return new ResResult(clientService.writePart(request.getInputStream(), path, desPathname, chunkIndex, partSize, totalSize));
+	}
+	
+	@PutMapping("/upload/chunk")
+	@ApiOperation("分片直传，请求体为分片内容")
+	public ResResult uploadChunk(String token, Integer chunkIndex, String chunkMd5, Long partSize, HttpServletRequest request) throws IOException {
+		Assert.notNull(chunkIndex, "chunkIndex不能为空");
+		Assert.hasText(chunkMd5, "chunkMd5不能为空");
+		UploadTokenUtils.UploadToken uploadToken = chunkReportService.parseToken(token);
+		long size = clientService.uploadChunk(request.getInputStream(), uploadToken, chunkIndex, partSize, Math.max(request.getContentLengthLong(), 0), chunkMd5);
+		chunkReportService.report(token, chunkIndex, chunkMd5, size);
+		return new ResResult("上传成功");
+	}
+	
 	@PostMapping("/mergeFiles")
 	@ApiOperation("合并文件")
 	public ResResult mergeFiles(@RequestBody MergeFileDto mergeFileDto) throws Exception {
@@ -48,10 +80,13 @@ public class ClientController {
 		Map<String, Object> params = new HashMap<>();
 		params.put("length", mergeResult.getLength());
 		if (mergeFileDto.isGetMd5()) {
-			try (InputStream inputStream = new MosEncodeInputStream(new FileInputStream(mergeResult.getFile()), mergeFileDto.getDesPathname())) {
-				String md5 = DigestUtils.md5Hex(inputStream);
-				params.put("md5", md5);
+			String md5 = mergeResult.getMd5();
+			if (md5 == null) {
+				try (InputStream inputStream = new MosEncodeInputStream(new FileInputStream(mergeResult.getFile()), mergeFileDto.getDesPathname())) {
+					md5 = DigestUtils.md5Hex(inputStream);
+				}
 			}
+			params.put("md5", md5);
 		}
 		return new ResResult(params);
 	}
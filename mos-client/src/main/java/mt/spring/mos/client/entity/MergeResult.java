@@ -12,4 +12,8 @@ import java.io.File;
 public class MergeResult {
 	private File file;
 	private long length;
+	/**
+	 * 合并时顺带计算的md5，为空时需要重新读取文件计算
+	 */
+	private String md5;
 }
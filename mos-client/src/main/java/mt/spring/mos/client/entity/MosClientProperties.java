@@ -48,6 +48,10 @@ public class MosClientProperties {
 	private Instance instance = new Instance();
 	
 	private String basePathStrategyName = WeightStrategy.STRATEGY_NAME;
+	/**
+	 * 资源访问签名秘钥，需与服务端mos.server.visit-sign-key一致，为空则不校验
+	 */
+	private String visitSignKey;
 	
 	public List<BasePath> getDetailBasePaths() {
 		Assert.notNull(basePaths, "存储路径未配置");
@@ -145,4 +149,12 @@ public class MosClientProperties {
 	public void setBasePathStrategyName(String basePathStrategyName) {
 		this.basePathStrategyName = basePathStrategyName;
 	}
+	
+	public String getVisitSignKey() {
+		return visitSignKey;
+	}
+	
+	public void setVisitSignKey(String visitSignKey) {
+		this.visitSignKey = visitSignKey;
+	}
 }
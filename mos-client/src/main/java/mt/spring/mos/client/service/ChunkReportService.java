@@ -0,0 +1,86 @@
+package mt.spring.mos.client.service;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.base.utils.UploadTokenUtils;
+import mt.spring.mos.base.utils.VisitSignUtils;
+import mt.spring.mos.client.entity.MosClientProperties;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * 分片直传：校验服务端签发的上传凭证，分片写入后同步回报服务端，回报成功才响应客户端
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class ChunkReportService {
+	/**
+	 * 每个服务端地址的回报重试次数
+	 */
+	private static final int MAX_RETRY = 2;
+	@Autowired
+	@Qualifier("httpRestTemplate")
+	private RestTemplate httpRestTemplate;
+	@Autowired
+	private MosClientProperties mosClientProperties;
+	@Autowired
+	private RegistSchedule registSchedule;
+	
+	/**
+	 * 校验上传凭证
+	 */
+	public UploadTokenUtils.UploadToken parseToken(String token) {
+		String visitSignKey = mosClientProperties.getVisitSignKey();
+		Assert.state(StringUtils.isNotBlank(visitSignKey), "未配置签名秘钥，不支持分片直传");
+		UploadTokenUtils.UploadToken uploadToken = UploadTokenUtils.parseToken(visitSignKey, token);
+		Assert.notNull(uploadToken, "上传凭证无效或已过期");
+		Assert.state(registSchedule.getInstance().getName().equals(uploadToken.getClientName()), "上传凭证不属于当前存储服务器");
+		return uploadToken;
+	}
+	
+	/**
+	 * 回报分片，所有服务端地址均回报失败时抛出异常，由客户端重新上传该分片
+	 */
+	public void report(String token, int chunkIndex, String chunkMd5, long size) {
+		Exception lastException = null;
+		for (String host : registSchedule.getServerHosts()) {
+			for (int i = 1; i <= MAX_RETRY; i++) {
+				try {
+					doReport(host, token, chunkIndex, chunkMd5, size);
+					return;
+				} catch (Exception e) {
+					lastException = e;
+					log.error("回报分片失败：" + host + "，第" + i + "次，" + e.getMessage(), e);
+				}
+			}
+		}
+		throw new IllegalStateException("回报分片" + chunkIndex + "失败，请重新上传", lastException);
+	}
+	
+	private void doReport(String host, String token, int chunkIndex, String chunkMd5, long size) {
+		long expires = System.currentTimeMillis() + 60 * 1000;
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+		MultiValueMap<String, Object> params = new LinkedMultiValueMap<>();
+		params.add("token", token);
+		params.add("chunkIndex", chunkIndex);
+		params.add("chunkMd5", chunkMd5);
+		params.add("size", size);
+		params.add(VisitSignUtils.PARAM_EXPIRES, expires);
+		params.add(VisitSignUtils.PARAM_SIGN, VisitSignUtils.sign(mosClientProperties.getVisitSignKey(), UploadTokenUtils.getReportContent(token, chunkIndex, chunkMd5, size), expires));
+		ResponseEntity<String> response = httpRestTemplate.exchange(host + "/discovery/chunk", HttpMethod.PUT, new HttpEntity<>(params, httpHeaders), String.class);
+		JSONObject result = JSONObject.parseObject(response.getBody());
+		Assert.state(result != null && "ok".equalsIgnoreCase(result.getString("status")), "回报结果：" + response.getBody());
+		log.debug("回报分片{}成功", chunkIndex);
+	}
+}
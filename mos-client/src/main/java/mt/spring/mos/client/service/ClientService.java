@@ -7,27 +7,40 @@ import mt.spring.mos.base.stream.BoundedInputStream;
 import mt.spring.mos.base.stream.MosEncodeInputStream;
 import mt.spring.mos.base.stream.MosEncodeOutputStream;
 import mt.spring.mos.base.stream.RepeatableBoundedFileInputStream;
+import mt.spring.mos.base.utils.BufferPool;
 import mt.spring.mos.base.utils.MosFileEncodeUtils;
+import mt.spring.mos.base.utils.UploadTokenUtils;
 import mt.spring.mos.client.entity.MergeResult;
 import mt.spring.mos.client.entity.MosClientProperties;
 import mt.spring.mos.client.entity.dto.MergeFileDto;
 import mt.spring.mos.client.entity.dto.Thumb;
 import mt.spring.mos.client.service.strategy.PathStrategy;
 import mt.spring.mos.client.utils.FfmpegUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -44,6 +57,11 @@ public class ClientService implements InitializingBean {
 	@Autowired
 	private PathStrategy pathStrategy;
 	private ThreadPoolExecutor threadPoolExecutor;
+	/**
+	 * 预分配上传的数据文件，位于分片目录下
+	 */
+	private static final String PREALLOCATED_NAME = "preallocated";
+	private final Object preallocateLock = new Object();
 	
 	private void assertPathnameIsValid(String pathname, String name) {
 		Assert.state(StringUtils.isNotBlank(pathname), name + "不能为空");
@@ -80,6 +98,104 @@ public class ClientService implements InitializingBean {
 		}
 	}
 	
+	/**
+	 * 接收直传分片，边写入边计算md5，与chunkMd5不一致时删除分片
+	 *
+	 * @param partSize 分片大小，不为空时写入预分配文件
+	 * @return 分片大小
+	 */
+	public long uploadChunk(InputStream inputStream, UploadTokenUtils.UploadToken uploadToken, int chunkIndex, @Nullable Long partSize, long size, String chunkMd5) throws IOException {
+		MessageDigest md5 = DigestUtils.getMd5Digest();
+		CountingInputStream countingInputStream = new CountingInputStream(new DigestInputStream(inputStream, md5));
+		boolean preallocated = partSize != null && partSize > 0;
+		String pathname = uploadToken.getItemName(chunkIndex);
+		if (preallocated) {
+			writePart(countingInputStream, uploadToken.getChunkTempPath(), uploadToken.getPathname(), chunkIndex, partSize, uploadToken.getTotalSize());
+		} else {
+			upload(countingInputStream, pathname, size);
+		}
+		String md5Hex = Hex.encodeHexString(md5.digest());
+		if (!md5Hex.equalsIgnoreCase(chunkMd5)) {
+			if (!preallocated) {
+				deleteFile(pathname);
+			}
+			throw new IllegalStateException("分片md5校验失败：" + pathname + "，期望" + chunkMd5 + "，实际" + md5Hex);
+		}
+		return countingInputStream.getByteCount();
+	}
+	
+	/**
+	 * 预分配上传：分片按偏移直接写入预分配的文件，文件开头预留加密文件头，合并时只需写入文件头并移动文件
+	 *
+	 * @param inputStream 分片流
+	 * @param path        分片目录
+	 * @param desPathname 合并后的文件，用于计算文件头长度
+	 * @param chunkIndex  分片序号
+	 * @param partSize    分片大小，最后一个分片可以小于此值
+	 * @param totalSize   文件总大小
+	 * @return 写入的字节数
+	 */
+	public long writePart(InputStream inputStream, String path, String desPathname, int chunkIndex, long partSize, long totalSize) throws IOException {
+		try {
+			assertPathnameIsValid(path, "path");
+			assertPathnameIsValid(desPathname, "desPathname");
+			long start = chunkIndex * partSize;
+			Assert.state(partSize > 0 && chunkIndex >= 0 && start < Math.max(totalSize, 1), "分片超出文件范围：" + chunkIndex);
+			long maxLength = Math.min(partSize, totalSize - start);
+			int headLength = getFileHead(desPathname).length;
+			long position = headLength + start;
+			File file = getOrCreatePreallocatedFile(path, headLength + totalSize);
+			long written = 0;
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+				 FileChannel channel = randomAccessFile.getChannel();
+				 BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE)) {
+				byte[] buffer = pooledBuffer.get();
+				int length;
+				while ((length = inputStream.read(buffer)) != -1) {
+					Assert.state(written + length <= maxLength, "分片大小超出范围：" + chunkIndex);
+					ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+					while (byteBuffer.hasRemaining()) {
+						channel.write(byteBuffer, position + written + byteBuffer.position());
+					}
+					written += length;
+				}
+			}
+			log.debug("分片{}写入{}，偏移：{}，长度：{}", chunkIndex, file.getPath(), position, written);
+			return written;
+		} finally {
+			inputStream.close();
+		}
+	}
+	
+	private File getOrCreatePreallocatedFile(String path, long length) throws IOException {
+		String pathname = path + "/" + PREALLOCATED_NAME;
+		synchronized (preallocateLock) {
+			File file = getFile(pathname);
+			if (file == null) {
+				file = new File(getAvaliableBasePath(length, pathname), pathname);
+				File parentFile = file.getParentFile();
+				if (!parentFile.exists()) {
+					parentFile.mkdirs();
+				}
+			}
+			if (file.length() < length) {
+				log.info("预分配文件：{}，大小：{}", file.getPath(), length);
+				try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+					randomAccessFile.setLength(length);
+				}
+			}
+			return file;
+		}
+	}
+	
+	private byte[] getFileHead(String desPathname) {
+		try {
+			return MosFileEncodeUtils.getFileHead(desPathname);
+		} catch (Exception e) {
+			throw new IllegalStateException("生成文件头失败：" + e.getMessage(), e);
+		}
+	}
+	
 	public void deleteFile(String pathname) {
 		assertPathnameIsValid(pathname, "pathname");
 		File file = getFile(pathname);
@@ -150,6 +266,10 @@ public class ClientService implements InitializingBean {
 		return mosClientProperties.getDetailBasePaths().stream().map(basePath -> new File(basePath.getPath(), pathname)).filter(File::exists).findFirst().orElse(null);
 	}
 	
+	private String getBasePath(String pathname) {
+		return mosClientProperties.getDetailBasePaths().stream().map(MosClientProperties.BasePath::getPath).filter(basePath -> new File(basePath, pathname).exists()).findFirst().orElse(null);
+	}
+	
 	public MergeResult mergeFiles(MergeFileDto mergeFileDto) throws Exception {
 		log.info("合并：{} -> {}", mergeFileDto.getPath(), mergeFileDto.getDesPathname());
 		MergeResult mergeResult = new MergeResult();
@@ -163,9 +283,29 @@ public class ClientService implements InitializingBean {
 		//文件头
 		byte[] fileHead = MosFileEncodeUtils.getFileHead(mergeFileDto.getDesPathname());
 		int offset = fileHead.length;
+		File preallocatedFile = getFile(mergeFileDto.getPath() + "/" + PREALLOCATED_NAME);
 		if (path == null && desFile != null && desFile.isFile()) {
 			//已经合并过
 			mergeResult.setFile(desFile);
+		} else if (preallocatedFile != null) {
+			//预分配上传，分片已在最终位置，写入文件头后移动即可
+			Assert.state(mergeFileDto.isEncode(), "预分配上传的文件只支持加密合并");
+			File[] parts = path.listFiles((dir, name) -> name.startsWith("part"));
+			Assert.state(parts == null || parts.length == 0, "分片目录中同时存在分片文件和预分配文件，请重新上传：" + mergeFileDto.getPath());
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(preallocatedFile, "rw")) {
+				randomAccessFile.write(fileHead);
+			}
+			if (desFile == null) {
+				desFile = new File(getBasePath(mergeFileDto.getPath() + "/" + PREALLOCATED_NAME), desPathname);
+			}
+			File parentFile = desFile.getParentFile();
+			if (!parentFile.exists()) {
+				parentFile.mkdirs();
+			}
+			Files.move(preallocatedFile.toPath(), desFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			FileUtils.deleteDirectory(path);
+			log.info("文件合并完成,合并文件：{}", desPathname);
+			mergeResult.setFile(desFile);
 		} else {
 			//未合并
 			Assert.state(path != null && path.isDirectory(), "合并路径不存在或不是文件夹：" + mergeFileDto.getPath());
@@ -182,39 +322,61 @@ public class ClientService implements InitializingBean {
 				fileSize += srcFile.length();
 			}
 			String avaliableBasePath = getAvaliableBasePath(fileSize);
-			long partSize = srcFiles.get(0).length();
 			
 			log.info("开始合并文件：{}", desPathname);
 			if (desFile == null) {
 				desFile = new File(avaliableBasePath, desPathname);
 			}
 			mergeResult.setFile(desFile);
-			if (mergeFileDto.isEncode()) {
-				try (RandomAccessFile randomAccessFile = new RandomAccessFile(desFile, "rw")) {
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(desFile, "rw")) {
+				if (mergeFileDto.isEncode()) {
 					randomAccessFile.write(fileHead);
-				} catch (Exception e) {
-					log.error(e.getMessage(), e);
-					throw new RuntimeException(e);
+				} else {
+					offset = 0;
 				}
+				randomAccessFile.setLength(offset + fileSize);
 			}
-			CountDownLatch countDownLatch = new CountDownLatch(srcFiles.size());
-			for (int i = 0; i < srcFiles.size(); i++) {
-				threadPoolExecutor.submit(new MergeTask(srcFiles.get(i), desFile, i, partSize, countDownLatch, offset));
+			List<Future<?>> futures = new ArrayList<>();
+			//分片大小可以不同，按已有分片的累计长度计算写入位置
+			long position = offset;
+			for (File srcFile : srcFiles) {
+				futures.add(threadPoolExecutor.submit(new MergeTask(srcFile, desFile, position)));
+				position += srcFile.length();
 			}
+			//分片并行写入的同时按顺序读取分片计算md5，不需要合并后再读一遍
+			String md5 = mergeFileDto.isGetMd5() ? md5(srcFiles) : null;
 			try {
-				countDownLatch.await();
-				log.info("文件合并完成,合并文件：{}", desPathname);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			} finally {
-				FileUtils.deleteDirectory(path);
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("合并失败：" + e.getCause().getMessage(), e.getCause());
 			}
+			mergeResult.setMd5(md5);
+			log.info("文件合并完成,合并文件：{}", desPathname);
+			FileUtils.deleteDirectory(path);
 		}
 		
 		mergeResult.setLength(mergeFileDto.isEncode() ? desFile.length() - offset : desFile.length());
 		return mergeResult;
 	}
 	
+	private String md5(List<File> srcFiles) throws IOException {
+		MessageDigest md5 = DigestUtils.getMd5Digest();
+		try (BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE)) {
+			byte[] buffer = pooledBuffer.get();
+			for (File srcFile : srcFiles) {
+				try (InputStream inputStream = new FileInputStream(srcFile)) {
+					int length;
+					while ((length = inputStream.read(buffer)) != -1) {
+						md5.update(buffer, 0, length);
+					}
+				}
+			}
+		}
+		return Hex.encodeHexString(md5.digest());
+	}
+	
 	@SneakyThrows
 	public String md5(String pathname) {
 		File file = getFile(pathname);
@@ -315,57 +477,36 @@ public class ClientService implements InitializingBean {
 		}
 	}
 	
+	/**
+	 * 分片零拷贝写入合并文件的对应位置
+	 */
 	@Data
 	static class MergeTask implements Runnable {
 		private File srcFile;
-		private int chunkIndex;
 		private File desFile;
-		private long partSize;
-		private CountDownLatch countDownLatch;
-		private int offset;
+		/**
+		 * 在目标文件中的写入位置
+		 */
+		private long position;
 		
-		public MergeTask(File srcFile, File desFile, int chunkIndex, long partSize, CountDownLatch countDownLatch, int offset) {
+		public MergeTask(File srcFile, File desFile, long position) {
 			this.srcFile = srcFile;
 			this.desFile = desFile;
-			this.chunkIndex = chunkIndex;
-			this.partSize = partSize;
-			this.countDownLatch = countDownLatch;
-			this.offset = offset;
+			this.position = position;
 		}
 		
 		@Override
 		public void run() {
-			RandomAccessFile randomAccessFile = null;
-			InputStream in = null;
-			try {
-				randomAccessFile = new RandomAccessFile(desFile, "rw");
-				in = new FileInputStream(srcFile);
-				randomAccessFile.seek(offset + chunkIndex * partSize);
-				// 每次读取的大小
-				byte[] buffer = new byte[4096];
-				// 实际读取的大小
-				int length;
-				while ((length = in.read(buffer)) != -1) {
-					randomAccessFile.write(buffer, 0, length);
+			try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+				 FileChannel out = FileChannel.open(desFile.toPath(), StandardOpenOption.WRITE)) {
+				out.position(position);
+				long size = in.size();
+				long transferred = 0;
+				while (transferred < size) {
+					transferred += in.transferTo(transferred, size - transferred, out);
 				}
 			} catch (IOException e) {
 				throw new RuntimeException(e);
-			} finally {
-				if (in != null) {
-					try {
-						in.close();
-					} catch (IOException e) {
-						log.error(e.getMessage(), e);
-					}
-				}
-				if (randomAccessFile != null) {
-					try {
-						randomAccessFile.close();
-					} catch (IOException e) {
-						log.error(e.getMessage(), e);
-					}
-				}
-				countDownLatch.countDown();
 			}
 		}
 	}
@@ -15,7 +15,9 @@ import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -63,6 +65,23 @@ public class RegistSchedule {
 		return singleInstance;
 	}
 	
+	/**
+	 * 服务端地址，最近注册成功的排在最前
+	 */
+	public List<String> getServerHosts() {
+		List<String> hosts = new ArrayList<>();
+		String lastHost = lastRegistSuccessHost.get();
+		if (StringUtils.isNotBlank(lastHost)) {
+			hosts.add(lastHost);
+		}
+		for (String serverHost : mosClientProperties.getServerHosts()) {
+			if (!serverHost.equals(lastHost)) {
+				hosts.add(serverHost);
+			}
+		}
+		return hosts;
+	}
+	
 	@EventListener
 	public void regist(ContextRefreshedEvent contextRefreshedEvent) {
 		if (registTimer != null) {
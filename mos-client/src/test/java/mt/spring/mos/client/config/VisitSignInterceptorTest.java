@@ -0,0 +1,82 @@
+package mt.spring.mos.client.config;
+
+import mt.spring.mos.base.utils.VisitSignUtils;
+import mt.spring.mos.client.entity.MosClientProperties;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/24
+ */
+public class VisitSignInterceptorTest {
+	private static final String KEY = "test-sign-key";
+	private static final String PATH = "/202101/md5";
+	
+	private VisitSignInterceptor newInterceptor(String key) {
+		MosClientProperties mosClientProperties = new MosClientProperties();
+		mosClientProperties.setVisitSignKey(key);
+		return new VisitSignInterceptor(mosClientProperties);
+	}
+	
+	private MockHttpServletRequest newRequest(long expires, String sign, String contentType) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/mos" + PATH);
+		request.setParameter(VisitSignUtils.PARAM_EXPIRES, String.valueOf(expires));
+		request.setParameter(VisitSignUtils.PARAM_SIGN, sign);
+		if (contentType != null) {
+			request.setParameter(VisitSignUtils.PARAM_CONTENT_TYPE, contentType);
+		}
+		return request;
+	}
+	
+	@Test
+	public void testNoKeyIgnoresContentType() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/mos" + PATH);
+		request.setParameter(VisitSignUtils.PARAM_CONTENT_TYPE, "text/html");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(newInterceptor(null).preHandle(request, response, new Object()));
+		assertNull(response.getContentType());
+	}
+	
+	@Test
+	public void testSignedContentType() throws Exception {
+		long expires = System.currentTimeMillis() + 60000;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires, "image/png");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(newInterceptor(KEY).preHandle(newRequest(expires, sign, "image/png"), response, new Object()));
+		assertEquals("image/png", response.getContentType());
+	}
+	
+	@Test
+	public void testUnsignedContentTypeRejected() throws Exception {
+		long expires = System.currentTimeMillis() + 60000;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertFalse(newInterceptor(KEY).preHandle(newRequest(expires, sign, "text/html"), response, new Object()));
+		assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+		assertNull(response.getContentType());
+	}
+	
+	@Test
+	public void testTamperedContentTypeRejected() throws Exception {
+		long expires = System.currentTimeMillis() + 60000;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires, "image/png");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertFalse(newInterceptor(KEY).preHandle(newRequest(expires, sign, "text/html"), response, new Object()));
+		assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+	}
+	
+	@Test
+	public void testWithoutContentType() throws Exception {
+		long expires = System.currentTimeMillis() + 60000;
+		String sign = VisitSignUtils.sign(KEY, PATH, expires);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(newInterceptor(KEY).preHandle(newRequest(expires, sign, null), response, new Object()));
+		assertNull(response.getContentType());
+	}
+}
@@ -10,6 +10,7 @@ import mt.spring.mos.base.utils.RegexUtils;
 import mt.spring.mos.sdk.entity.DirAndResource;
 import mt.spring.mos.sdk.entity.MosConfig;
 import mt.spring.mos.sdk.entity.PageInfo;
+import mt.spring.mos.sdk.entity.upload.BatchUploadResult;
 import mt.spring.mos.sdk.entity.upload.MosUploadConfig;
 import mt.spring.mos.sdk.entity.upload.UploadInfo;
 import mt.spring.mos.sdk.http.ServiceClient;
@@ -30,6 +31,7 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -234,6 +236,11 @@ public class MosSdk implements MosApi {
 		multipartOperation.uploadStream(inputStream, uploadInfo);
 	}
 	
+	@Override
+	public BatchUploadResult uploadFiles(Map<File, UploadInfo> files) throws IOException {
+		return multipartOperation.uploadFiles(files);
+	}
+	
 	@Override
 	public void downloadFile(String pathname, File desFile) throws IOException {
 		multipartOperation.downloadFile(pathname, desFile);
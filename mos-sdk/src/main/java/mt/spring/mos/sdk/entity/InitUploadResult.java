@@ -12,8 +12,17 @@ import java.util.List;
 public class InitUploadResult {
 	private boolean fileExists;
 	private List<Integer> existedChunkIndexs;
+	/**
+	 * 分片直传地址，为空时通过服务端上传
+	 */
+	private String uploadUrl;
+	private String uploadToken;
 	
 	public boolean hasUploaded(int chunkIndex) {
 		return existedChunkIndexs != null && existedChunkIndexs.contains(chunkIndex);
 	}
+	
+	public boolean isDirectUpload() {
+		return uploadUrl != null && uploadToken != null;
+	}
 }
@@ -0,0 +1,80 @@
+package mt.spring.mos.sdk.entity.upload;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 批量上传小文件，每个文件一帧：一行JSON文件头，后跟文件内容
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class BatchUploadRequest {
+	/**
+	 * 文件及文件信息，pathname已检查
+	 */
+	private final Map<File, UploadInfo> files;
+	
+	/**
+	 * 所有文件的公共路径，用于签名
+	 */
+	public String getPath() {
+		String path = null;
+		for (UploadInfo uploadInfo : files.values()) {
+			String pathname = uploadInfo.getPathname();
+			String parent = pathname.substring(0, pathname.lastIndexOf("/") + 1);
+			if (path == null) {
+				path = parent;
+				continue;
+			}
+			int i = 0;
+			while (i < path.length() && i < parent.length() && path.charAt(i) == parent.charAt(i)) {
+				i++;
+			}
+			path = path.substring(0, path.lastIndexOf("/", i - 1) + 1);
+		}
+		return path == null ? "/" : path;
+	}
+	
+	/**
+	 * 请求体在写出时逐个读取文件，不缓存整个请求体；每次写出（包括getContent和重试）都重新读取文件
+	 */
+	public HttpEntity buildEntity() {
+		EntityTemplate entity = new EntityTemplate(this::writeTo);
+		entity.setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+		entity.setChunked(true);
+		return entity;
+	}
+	
+	private void writeTo(OutputStream outputStream) throws IOException {
+		for (Map.Entry<File, UploadInfo> entry : files.entrySet()) {
+			File file = entry.getKey();
+			UploadInfo uploadInfo = entry.getValue();
+			byte[] content = FileUtils.readFileToByteArray(file);
+			JSONObject head = new JSONObject();
+			head.put("pathname", uploadInfo.getPathname());
+			head.put("md5", DigestUtils.md5Hex(content));
+			head.put("sizeByte", content.length);
+			head.put("lastModified", file.lastModified());
+			head.put("contentType", uploadInfo.getContentType());
+			head.put("isPublic", uploadInfo.isPublic());
+			head.put("cover", uploadInfo.isCover());
+			outputStream.write(head.toJSONString().getBytes(StandardCharsets.UTF_8));
+			outputStream.write('\n');
+			outputStream.write(content);
+		}
+		outputStream.flush();
+	}
+}
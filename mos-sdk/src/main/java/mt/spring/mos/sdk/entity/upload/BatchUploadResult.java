@@ -0,0 +1,32 @@
+package mt.spring.mos.sdk.entity.upload;
+
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class BatchUploadResult {
+	/**
+	 * 写入存储服务器的文件数
+	 */
+	private int uploaded;
+	/**
+	 * 与已有文件相同，直接引用的文件数
+	 */
+	private int deduped;
+	/**
+	 * 失败的文件及原因
+	 */
+	private Map<String, String> failed = new LinkedHashMap<>();
+	/**
+	 * 相同的文件正在分片上传，需改用分片上传的文件，同时记录在failed中
+	 */
+	private Set<String> uploading = new LinkedHashSet<>();
+}
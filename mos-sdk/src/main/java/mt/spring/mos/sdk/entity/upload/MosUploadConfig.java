@@ -16,17 +16,46 @@ public class MosUploadConfig {
 	 */
 	private long minPartSize = 2 * MB;
 	/**
-	 * 最大的分片大小，单位byte，默认20MB
+	 * 最大的分片大小，单位byte，默认20MB，流上传和流水线上传时不超过缓冲池入池的最大大小
 	 */
 	private long maxPartSize = 20 * MB;
 	/**
-	 * 上传/下载线程池核心线程数，默认5
+	 * 上传/下载线程池核心线程数，默认5，自适应并发时上传线程池按maxConcurrency创建
 	 */
 	private int threadPoolCore = 5;
 	/**
 	 * 上传/下载线程池最大队列容量，默认不限制
 	 */
 	private int maxQueueSize = Integer.MAX_VALUE;
+	/**
+	 * 是否流水线上传，默认true：用文件指纹初始化，读取分片的同时计算md5并上传，文件只读一遍，
+	 * 相同文件在合并时去重；为false时先读取整个文件计算md5，相同文件初始化时即可秒传
+	 */
+	private boolean pipelineUpload = true;
+	/**
+	 * 是否一次请求上传小文件，默认true：不超过minPartSize的文件一个请求直接写入最终文件，不经过初始化、分片和合并
+	 */
+	private boolean putObject = true;
+	/**
+	 * 是否自适应并发，默认true：从threadPoolCore开始，按分片上传的延迟和服务端的429/503响应增减在途分片数
+	 */
+	private boolean adaptiveConcurrency = true;
+	/**
+	 * 自适应并发时的最大在途分片数，默认32
+	 */
+	private int maxConcurrency = 32;
+	/**
+	 * 在途分片的最大总大小，单位byte，默认256MB，限制自适应并发时的内存占用
+	 */
+	private long maxInFlightBytes = 256 * MB;
+	/**
+	 * 批量上传时每个请求的文件数，默认1000
+	 */
+	private int batchUploadSize = 1000;
+	/**
+	 * 批量上传的最大文件大小，单位byte，默认8MB，超过的单独分片上传
+	 */
+	private long batchUploadMaxFileSize = 8 * MB;
 	
 	public int getExpectChunks() {
 		return Integer.getInteger("mos.upload.expectChunks", expectChunks);
@@ -67,4 +96,60 @@ public class MosUploadConfig {
 	public void setMaxQueueSize(int maxQueueSize) {
 		this.maxQueueSize = maxQueueSize;
 	}
+	
+	public boolean isPipelineUpload() {
+		return Boolean.parseBoolean(System.getProperty("mos.upload.pipelineUpload", pipelineUpload + ""));
+	}
+	
+	public void setPipelineUpload(boolean pipelineUpload) {
+		this.pipelineUpload = pipelineUpload;
+	}
+	
+	public boolean isPutObject() {
+		return Boolean.parseBoolean(System.getProperty("mos.upload.putObject", putObject + ""));
+	}
+	
+	public void setPutObject(boolean putObject) {
+		this.putObject = putObject;
+	}
+	
+	public boolean isAdaptiveConcurrency() {
+		return Boolean.parseBoolean(System.getProperty("mos.upload.adaptiveConcurrency", adaptiveConcurrency + ""));
+	}
+	
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+	
+	public int getMaxConcurrency() {
+		return Integer.getInteger("mos.upload.maxConcurrency", maxConcurrency);
+	}
+	
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+	
+	public long getMaxInFlightBytes() {
+		return Long.getLong("mos.upload.maxInFlightBytes", maxInFlightBytes);
+	}
+	
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+	
+	public int getBatchUploadSize() {
+		return Integer.getInteger("mos.upload.batchUploadSize", batchUploadSize);
+	}
+	
+	public void setBatchUploadSize(int batchUploadSize) {
+		this.batchUploadSize = batchUploadSize;
+	}
+	
+	public long getBatchUploadMaxFileSize() {
+		return Long.getLong("mos.upload.batchUploadMaxFileSize", batchUploadMaxFileSize);
+	}
+	
+	public void setBatchUploadMaxFileSize(long batchUploadMaxFileSize) {
+		this.batchUploadMaxFileSize = batchUploadMaxFileSize;
+	}
 }
@@ -0,0 +1,50 @@
+package mt.spring.mos.sdk.entity.upload;
+
+import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * 小文件一次请求上传，文件信息放在查询参数中，文件内容作为请求体
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class PutObjectRequest {
+	private String pathname;
+	private String md5;
+	private long lastModified;
+	private boolean isPublic;
+	private String contentType;
+	private boolean cover;
+	private byte[] content;
+	
+	public PutObjectRequest(String md5, byte[] content, long lastModified, UploadInfo uploadInfo) {
+		this.md5 = md5;
+		this.content = content;
+		this.lastModified = lastModified;
+		this.isPublic = uploadInfo.isPublic();
+		this.contentType = uploadInfo.getContentType();
+		this.pathname = uploadInfo.getPathname();
+		this.cover = uploadInfo.isCover();
+	}
+	
+	public String buildQuery() throws UnsupportedEncodingException {
+		return "pathname=" + URLEncoder.encode(pathname, "UTF-8")
+				+ "&md5=" + md5
+				+ "&lastModified=" + lastModified
+				+ "&isPublic=" + isPublic
+				+ "&cover=" + cover
+				+ (StringUtils.isNotBlank(contentType) ? "&contentType=" + URLEncoder.encode(contentType, "UTF-8") : "");
+	}
+	
+	public HttpEntity buildEntity() {
+		return new ByteArrayEntity(content, ContentType.APPLICATION_OCTET_STREAM);
+	}
+}
@@ -12,6 +12,10 @@ public class UploadInfo {
 	private boolean cover;
 	private boolean isPublic;
 	private String contentType;
+	/**
+	 * 文件的完整md5，调用方已知时设置，计入分片续传的标识并在上传后校验
+	 */
+	private String md5;
 	
 	public UploadInfo(String pathname, boolean cover) {
 		this.pathname = pathname;
@@ -24,6 +24,10 @@ public class UploadMergeRequest {
 	private boolean wait;
 	private boolean cover;
 	private long lastModified;
+	/**
+	 * 客户端计算的文件md5，不为空时服务端合并后校验
+	 */
+	private String md5;
 	
 	public UploadMergeRequest(String totalMd5, long totalSize, int chunks, boolean updateMd5, boolean wait, long lastModified, UploadInfo uploadInfo) {
 		this.lastModified = lastModified;
@@ -53,6 +57,9 @@ public class UploadMergeRequest {
 		builder.addPart("cover", new StringBody(cover + "", contentType));
 		builder.addPart("updateMd5", new StringBody(updateMd5 + "", contentType));
 		builder.addPart("wait", new StringBody(wait + "", contentType));
+		if (StringUtils.isNotBlank(md5)) {
+			builder.addPart("md5", new StringBody(md5, contentType));
+		}
 		return builder.build();
 	}
 }
@@ -1,13 +1,14 @@
 package mt.spring.mos.sdk.entity.upload;
 
 import lombok.Data;
-import mt.spring.mos.base.stream.MyInputStreamBody;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.InputStreamEntity;
 
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 
 /**
  * @Author Martin
@@ -22,6 +23,10 @@ public class UploadPartRequest {
 	private int chunkIndex;
 	private InputStream inputStream;
 	private long length;
+	/**
+	 * 分片大小，不为空时存储服务器将分片直接写入预分配文件
+	 */
+	private Long partSize;
 	
 	public UploadPartRequest(String pathname, String totalMd5, long totalSize, String chunkMd5, int chunkIndex, InputStream inputStream, long length) {
 		this.pathname = pathname;
@@ -33,16 +38,26 @@ public class UploadPartRequest {
 		this.length = length;
 	}
 	
+	/**
+	 * 分片元数据，放在查询参数中
+	 */
+	public String buildQuery() throws UnsupportedEncodingException {
+		return "pathname=" + URLEncoder.encode(pathname, "UTF-8")
+				+ "&totalMd5=" + totalMd5
+				+ "&totalSize=" + totalSize
+				+ "&chunkMd5=" + chunkMd5
+				+ "&chunkIndex=" + chunkIndex
+				+ getPartSizeQuery();
+	}
+	
+	public String getPartSizeQuery() {
+		return partSize != null ? "&partSize=" + partSize : "";
+	}
+	
+	/**
+	 * 分片内容直接作为请求体，上传失败后流可以reset重传，不关闭原始流
+	 */
 	public HttpEntity buildEntity() {
-		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-		ContentType contentType = ContentType.create("multipart/form-data", StandardCharsets.UTF_8);
-		builder.setContentType(contentType);
-		builder.addPart("file", new MyInputStreamBody(inputStream, contentType, "file", length));
-		builder.addTextBody("pathname", pathname, contentType);
-		builder.addTextBody("totalMd5", totalMd5, contentType);
-		builder.addTextBody("totalSize", totalSize + "", contentType);
-		builder.addTextBody("chunkMd5", chunkMd5, contentType);
-		builder.addTextBody("chunkIndex", chunkIndex + "", contentType);
-		return builder.build();
+		return new InputStreamEntity(new CloseShieldInputStream(inputStream), length, ContentType.APPLICATION_OCTET_STREAM);
 	}
 }
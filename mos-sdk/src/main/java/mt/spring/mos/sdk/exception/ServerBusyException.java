@@ -0,0 +1,13 @@
+package mt.spring.mos.sdk.exception;
+
+/**
+ * 服务端限流或暂时不可用（429/503），稍后可以重试
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+public class ServerBusyException extends UploadException {
+	public ServerBusyException(String message) {
+		super(message);
+	}
+}
@@ -5,14 +5,17 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import mt.spring.mos.base.stream.MyInputStreamBody;
 import mt.spring.mos.base.utils.Assert;
+import mt.spring.mos.sdk.exception.ServerBusyException;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.HttpClientConnectionManager;
@@ -50,6 +53,7 @@ import java.util.concurrent.TimeUnit;
  */
 @Slf4j
 public class ServiceClient {
+	private static final int SC_TOO_MANY_REQUESTS = 429;
 	private CloseableHttpClient httpClient;
 	private HttpClientConnectionManager connectionManager;
 	
@@ -206,6 +210,12 @@ public class ServiceClient {
 		return getHttpClient().execute(httpPost);
 	}
 	
+	public CloseableHttpResponse put(String url, HttpEntity httpEntity) throws IOException {
+		HttpPut httpPut = new HttpPut(url);
+		httpPut.setEntity(httpEntity);
+		return getHttpClient().execute(httpPut);
+	}
+	
 	public CloseableHttpResponse delete(String url) throws IOException {
 		BasicHttpRequest request = new BasicHttpRequest("DELETE", url);
 		return getHttpClient().execute(getHttpHost(new URL(url)), request);
@@ -217,6 +227,11 @@ public class ServiceClient {
 	
 	public <T> T checkSuccessAndGetResult(CloseableHttpResponse response, Class<T> type) throws IOException {
 		HttpEntity entity = response.getEntity();
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode == SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+			EntityUtils.consumeQuietly(entity);
+			throw new ServerBusyException("服务端繁忙：" + statusCode);
+		}
 		String s = EntityUtils.toString(entity, "UTF-8");
 		log.trace("请求结果：{}", s);
 		JSONObject result = JSONObject.parseObject(s);
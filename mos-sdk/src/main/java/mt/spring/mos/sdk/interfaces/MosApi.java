@@ -2,6 +2,7 @@ package mt.spring.mos.sdk.interfaces;
 
 import mt.spring.mos.sdk.entity.DirAndResource;
 import mt.spring.mos.sdk.entity.PageInfo;
+import mt.spring.mos.sdk.entity.upload.BatchUploadResult;
 import mt.spring.mos.sdk.entity.upload.UploadInfo;
 import mt.spring.mos.sdk.upload.UploadProcessListener;
 import org.jetbrains.annotations.NotNull;
@@ -10,6 +11,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -97,6 +99,15 @@ public interface MosApi {
 	 */
 	void uploadStream(InputStream inputStream, UploadInfo uploadInfo) throws IOException;
 	
+	/**
+	 * 批量上传小文件，一个请求上传多个文件，相同的文件只引用不重复写入
+	 *
+	 * @param files 文件及文件信息
+	 * @return 上传结果
+	 * @throws IOException IO异常
+	 */
+	BatchUploadResult uploadFiles(Map<File, UploadInfo> files) throws IOException;
+	
 	/**
 	 * 下载文件
 	 *
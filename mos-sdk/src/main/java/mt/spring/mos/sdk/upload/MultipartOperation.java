@@ -3,28 +3,34 @@ package mt.spring.mos.sdk.upload;
 import com.alibaba.fastjson.JSONObject;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.base.utils.BufferPool;
 import mt.spring.mos.base.utils.IOUtils;
 import mt.spring.mos.base.utils.SizeUtils;
 import mt.spring.mos.sdk.MosSdk;
 import mt.spring.mos.sdk.entity.InitUploadResult;
 import mt.spring.mos.sdk.entity.MosConfig;
 import mt.spring.mos.sdk.entity.upload.*;
+import mt.spring.mos.sdk.exception.ServerBusyException;
 import mt.spring.mos.sdk.exception.UploadException;
 import mt.spring.mos.sdk.http.ServiceClient;
 import mt.spring.mos.sdk.interfaces.RecordFile;
 import mt.spring.mos.base.utils.Assert;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 
 import static mt.spring.mos.base.utils.ReflectUtils.getValue;
@@ -35,10 +41,20 @@ import static mt.spring.mos.base.utils.ReflectUtils.getValue;
  */
 @Slf4j
 public class MultipartOperation {
+	/**
+	 * 服务端繁忙时分片的最大重试次数
+	 */
+	private static final int MAX_BUSY_RETRY = 5;
+	private static final long BUSY_BACKOFF_MILLS = 500;
+	/**
+	 * 流上传时每上传多少个分片，分片大小翻倍
+	 */
+	private static final int STREAM_PART_GROW_CHUNKS = 4;
 	private final MosConfig mosConfig;
 	private MosUploadConfig mosUploadConfig;
 	private final MosSdk mosSdk;
 	private ThreadPoolExecutor threadPoolExecutor;
+	private ThreadPoolExecutor uploadExecutor;
 	private final ServiceClient client;
 	
 	public MultipartOperation(MosSdk mosSdk, MosConfig mosConfig, MosUploadConfig mosUploadConfig, ServiceClient client) {
@@ -59,11 +75,35 @@ public class MultipartOperation {
 		return threadPoolExecutor;
 	}
 	
+	/**
+	 * 分片上传线程池，按配置创建一次后不再调整，线程数满足最大并发数，每次上传的在途分片数由各自的并发控制决定，空闲线程超时回收
+	 */
+	private ThreadPoolExecutor getUploadExecutor() {
+		if (uploadExecutor == null) {
+			synchronized (this) {
+				if (uploadExecutor == null) {
+					int poolSize = mosUploadConfig.getThreadPoolCore();
+					if (mosUploadConfig.isAdaptiveConcurrency()) {
+						poolSize = Math.max(poolSize, mosUploadConfig.getMaxConcurrency());
+					}
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingDeque<>(mosUploadConfig.getMaxQueueSize()));
+					executor.allowCoreThreadTimeOut(true);
+					uploadExecutor = executor;
+				}
+			}
+		}
+		return uploadExecutor;
+	}
+	
 	public void shutdown() {
 		if (threadPoolExecutor != null) {
 			threadPoolExecutor.shutdown();
 			threadPoolExecutor = null;
 		}
+		if (uploadExecutor != null) {
+			uploadExecutor.shutdown();
+			uploadExecutor = null;
+		}
 	}
 	
 	public void setMosUploadConfig(MosUploadConfig mosUploadConfig) {
@@ -80,8 +120,9 @@ public class MultipartOperation {
 		private String sign;
 		private UploadProcessListener uploadProcessListener;
 		private InitUploadResult initUploadResult;
+		private UploadConcurrencyLimiter limiter;
 		
-		public Task(InitUploadResult initUploadResult, IOUtils.FileSplitResult fileSplitResult, int chunkIndex, String pathname, Boolean cover, String sign, UploadProcessListener uploadProcessListener) {
+		public Task(InitUploadResult initUploadResult, IOUtils.FileSplitResult fileSplitResult, int chunkIndex, String pathname, Boolean cover, String sign, UploadProcessListener uploadProcessListener, UploadConcurrencyLimiter limiter) {
 			this.initUploadResult = initUploadResult;
 			this.fileSplitResult = fileSplitResult;
 			this.chunkIndex = chunkIndex;
@@ -89,11 +130,13 @@ public class MultipartOperation {
 			this.cover = cover;
 			this.sign = sign;
 			this.uploadProcessListener = uploadProcessListener;
+			this.limiter = limiter;
 		}
 		
 		@Override
 		public void run() {
 			if (initUploadResult.hasUploaded(chunkIndex)) {
+				limiter.release();
 				if (uploadProcessListener != null) {
 					uploadProcessListener.addDone();
 				}
@@ -108,16 +151,55 @@ public class MultipartOperation {
 				log.debug("上传分片{}-{},md5={},length={}", pathname, chunkIndex, chunkMd5, uploadPart.getLength());
 				inputStream.reset();
 				UploadPartRequest uploadPartRequest = new UploadPartRequest(pathname, totalMd5, totalSize, chunkMd5, chunkIndex, inputStream, uploadPart.getLength());
-				String host = mosConfig.getHost();
-				String bucketName = mosConfig.getBucketName();
-				String uploadUrl = host + "/upload/" + bucketName + "?sign=" + sign;
-				CloseableHttpResponse closeableHttpResponse = client.post(uploadUrl, uploadPartRequest.buildEntity());
-				client.checkSuccessAndGetResult(closeableHttpResponse, JSONObject.class);
+				uploadPartRequest.setPartSize(fileSplitResult.getPartSize());
+				uploadPart(initUploadResult, uploadPartRequest, sign, limiter);
 				log.debug("分片{}-{}，上传成功!", pathname, chunkIndex);
 			} catch (Exception e) {
 				log.error("分片" + chunkIndex + "上传失败：" + e.getMessage(), e);
 				throw new RuntimeException(e);
 			} finally {
+				limiter.release();
+				if (uploadProcessListener != null) {
+					uploadProcessListener.addDone();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 上传已读入内存的分片，完成后归还缓冲区
+	 */
+	class BufferedPartTask implements Runnable {
+		private final InitUploadResult initUploadResult;
+		private final UploadPartRequest uploadPartRequest;
+		private final String sign;
+		private final BufferPool.PooledBuffer<byte[]> pooledBuffer;
+		private final UploadConcurrencyLimiter limiter;
+		private final UploadProcessListener uploadProcessListener;
+		
+		public BufferedPartTask(InitUploadResult initUploadResult, UploadPartRequest uploadPartRequest, String sign, BufferPool.PooledBuffer<byte[]> pooledBuffer, UploadConcurrencyLimiter limiter, @Nullable UploadProcessListener uploadProcessListener) {
+			this.initUploadResult = initUploadResult;
+			this.uploadPartRequest = uploadPartRequest;
+			this.sign = sign;
+			this.pooledBuffer = pooledBuffer;
+			this.limiter = limiter;
+			this.uploadProcessListener = uploadProcessListener;
+		}
+		
+		@Override
+		public void run() {
+			String pathname = uploadPartRequest.getPathname();
+			int chunkIndex = uploadPartRequest.getChunkIndex();
+			try {
+				log.debug("上传分片{}-{},md5={},length={}", pathname, chunkIndex, uploadPartRequest.getChunkMd5(), uploadPartRequest.getLength());
+				uploadPart(initUploadResult, uploadPartRequest, sign, limiter);
+				log.debug("分片{}-{}，上传成功!", pathname, chunkIndex);
+			} catch (Exception e) {
+				log.error("分片" + chunkIndex + "上传失败：" + e.getMessage(), e);
+				throw new RuntimeException(e);
+			} finally {
+				pooledBuffer.close();
+				limiter.release();
 				if (uploadProcessListener != null) {
 					uploadProcessListener.addDone();
 				}
@@ -144,40 +226,149 @@ public class MultipartOperation {
 		}
 		long lastModified = System.currentTimeMillis();
 		String sign = mosSdk.getSign(pathname, 2, TimeUnit.HOURS);
-		String host = mosConfig.getHost();
-		String bucketName = mosConfig.getBucketName();
-		String totalMd5 = UUID.randomUUID().toString();
+		//流的md5和大小要读完才知道，用随机标识初始化，合并时校验md5并按md5去重
+		String uploadId = UUID.randomUUID().toString();
 		long totalSize = 0;
-		int chunks;
 		
 		TaskTimeWatch taskTimeWatch = new TaskTimeWatch(pathname + "上传");
 		taskTimeWatch.start();
-		InitUploadResult initUploadResult = initUpload(new UploadInitRequest(totalMd5, totalSize, 1, lastModified, uploadInfo), sign);
-		boolean md5Exists = initUploadResult.isFileExists();
-		if (md5Exists) {
-			log.info("{}上传完成", pathname);
-			taskTimeWatch.end();
-			return;
+		InitUploadResult initUploadResult = initUpload(new UploadInitRequest(uploadId, totalSize, 1, lastModified, uploadInfo), sign);
+		MessageDigest totalDigest = DigestUtils.getMd5Digest();
+		//分片从minPartSize开始逐渐增大，长流的请求数更少，在途内存按最大分片计算
+		UploadConcurrencyLimiter limiter = newLimiter(getPooledMaxPartSize());
+		int chunks;
+		try (InputStream in = originInputStream) {
+			chunks = uploadByPipeline(in, this::getStreamPartSize, null, initUploadResult, pathname, uploadId, totalSize, totalDigest, limiter, sign, null);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
 		}
-		chunks = IOUtils.convertStreamToByteBufferStream(originInputStream, (inputStream, chunkIndex) -> {
+		log.info("{}上传速度：{}/s，并发数：{}", pathname, SizeUtils.getReadableSize(limiter.getThroughput()), limiter.getLimit());
+		//等待合并结果，md5校验失败时才能报告给调用方
+		UploadMergeRequest uploadMergeRequest = new UploadMergeRequest(uploadId, totalSize, chunks, true, true, lastModified, uploadInfo);
+		uploadMergeRequest.setMd5(Hex.encodeHexString(totalDigest.digest()));
+		merge(uploadMergeRequest, sign);
+		taskTimeWatch.end();
+	}
+	
+	/**
+	 * 流上传的分片大小，每{@link #STREAM_PART_GROW_CHUNKS}个分片翻倍，不超过{@link #getPooledMaxPartSize()}
+	 */
+	private int getStreamPartSize(int chunkIndex) {
+		long minPartSize = mosUploadConfig.getMinPartSize();
+		int shift = Math.min(chunkIndex / STREAM_PART_GROW_CHUNKS, 20);
+		return (int) Math.min(getPooledMaxPartSize(), minPartSize << shift);
+	}
+	
+	/**
+	 * 流上传和流水线上传的最大分片大小，分片缓冲区从缓冲池获取，不超过入池的最大大小，否则每个分片都要重新分配
+	 */
+	private long getPooledMaxPartSize() {
+		long minPartSize = mosUploadConfig.getMinPartSize();
+		return Math.max(minPartSize, Math.min(mosUploadConfig.getMaxPartSize(), BufferPool.MAX_POOLED_SIZE));
+	}
+	
+	/**
+	 * 批量上传小文件，每批文件一个请求，服务端按md5去重后直接写入存储服务器，超过大小限制的文件单独上传
+	 *
+	 * @param files 文件及文件信息
+	 * @return 上传结果
+	 */
+	public BatchUploadResult uploadFiles(Map<File, UploadInfo> files) throws IOException {
+		BatchUploadResult batchUploadResult = new BatchUploadResult();
+		Map<File, UploadInfo> batch = new LinkedHashMap<>();
+		for (Map.Entry<File, UploadInfo> entry : files.entrySet()) {
+			File file = entry.getKey();
+			UploadInfo uploadInfo = entry.getValue();
+			checkUploadInfo(uploadInfo);
+			if (file.length() > mosUploadConfig.getBatchUploadMaxFileSize()) {
+				try {
+					uploadFile(file, uploadInfo, null);
+					batchUploadResult.setUploaded(batchUploadResult.getUploaded() + 1);
+				} catch (IOException | RuntimeException e) {
+					log.error(uploadInfo.getPathname() + "上传失败：" + e.getMessage(), e);
+					batchUploadResult.getFailed().put(uploadInfo.getPathname(), e.getMessage());
+				}
+				continue;
+			}
+			batch.put(file, uploadInfo);
+			if (batch.size() >= mosUploadConfig.getBatchUploadSize()) {
+				uploadBatch(batch, batchUploadResult);
+				batch = new LinkedHashMap<>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			uploadBatch(batch, batchUploadResult);
+		}
+		log.info("批量上传完成，写入{}个，去重{}个，失败{}个", batchUploadResult.getUploaded(), batchUploadResult.getDeduped(), batchUploadResult.getFailed().size());
+		return batchUploadResult;
+	}
+	
+	private void uploadBatch(Map<File, UploadInfo> files, BatchUploadResult batchUploadResult) throws IOException {
+		BatchUploadRequest batchUploadRequest = new BatchUploadRequest(files);
+		String path = batchUploadRequest.getPath();
+		log.debug("批量上传{}个文件到{}...", files.size(), path);
+		String sign = mosSdk.getSign(path, 2, TimeUnit.HOURS);
+		String url = mosConfig.getHost() + "/upload/" + mosConfig.getBucketName() + "/batch?sign=" + URLEncoder.encode(sign, "UTF-8") + "&pathname=" + URLEncoder.encode(path, "UTF-8");
+		BatchUploadResult result = client.checkSuccessAndGetResult(client.put(url, batchUploadRequest.buildEntity()), BatchUploadResult.class);
+		batchUploadResult.setUploaded(batchUploadResult.getUploaded() + result.getUploaded());
+		batchUploadResult.setDeduped(batchUploadResult.getDeduped() + result.getDeduped());
+		batchUploadResult.getFailed().putAll(result.getFailed());
+	}
+	
+	/**
+	 * 上传分片，服务端签发了直传凭证时直接上传到存储服务器，失败后再通过服务端上传
+	 */
+	private void uploadPart(InitUploadResult initUploadResult, UploadPartRequest uploadPartRequest, String sign) throws IOException {
+		if (initUploadResult.isDirectUpload()) {
 			try {
-				String chunkMd5 = DigestUtils.md5Hex(inputStream);
-				log.debug("上传分片:" + chunkIndex + ":" + chunkMd5);
-				inputStream.reset();
-				UploadPartRequest uploadPartRequest = new UploadPartRequest(pathname, totalMd5, totalSize, chunkMd5, chunkIndex, inputStream, inputStream.available());
-				String uploadUrl = host + "/upload/" + bucketName + "?sign=" + sign;
-				CloseableHttpResponse closeableHttpResponse = client.post(uploadUrl, uploadPartRequest.buildEntity());
-				client.checkSuccessAndGetResult(closeableHttpResponse, JSONObject.class);
-				log.debug("分片" + chunkIndex + "，上传成功!");
+				String url = initUploadResult.getUploadUrl() + "?token=" + initUploadResult.getUploadToken() + "&chunkIndex=" + uploadPartRequest.getChunkIndex() + "&chunkMd5=" + uploadPartRequest.getChunkMd5() + uploadPartRequest.getPartSizeQuery();
+				client.checkSuccessAndGetResult(client.put(url, uploadPartRequest.buildEntity()), JSONObject.class);
+				return;
+			} catch (ServerBusyException e) {
+				throw e;
 			} catch (Exception e) {
-				log.error("分片" + chunkIndex + "上传失败：" + e.getMessage(), e);
-				throw new RuntimeException(e);
+				log.warn("分片" + uploadPartRequest.getChunkIndex() + "直传失败，改为通过服务端上传：" + e.getMessage());
+				uploadPartRequest.getInputStream().reset();
 			}
-		});
-		
-		UploadMergeRequest uploadMergeRequest = new UploadMergeRequest(totalMd5, totalSize, chunks, true, false, lastModified, uploadInfo);
-		merge(uploadMergeRequest, sign);
-		taskTimeWatch.end();
+		}
+		String uploadUrl = mosConfig.getHost() + "/upload/" + mosConfig.getBucketName() + "?sign=" + sign + "&" + uploadPartRequest.buildQuery();
+		CloseableHttpResponse closeableHttpResponse = client.put(uploadUrl, uploadPartRequest.buildEntity());
+		client.checkSuccessAndGetResult(closeableHttpResponse, JSONObject.class);
+	}
+	
+	/**
+	 * 上传分片并把耗时反馈给并发控制，服务端繁忙时退避重试
+	 */
+	private void uploadPart(InitUploadResult initUploadResult, UploadPartRequest uploadPartRequest, String sign, UploadConcurrencyLimiter limiter) throws IOException, InterruptedException {
+		for (int i = 1; ; i++) {
+			long startTime = System.currentTimeMillis();
+			try {
+				uploadPart(initUploadResult, uploadPartRequest, sign);
+				limiter.onSuccess(startTime, uploadPartRequest.getLength());
+				return;
+			} catch (ServerBusyException e) {
+				limiter.onBusy(startTime);
+				if (i >= MAX_BUSY_RETRY) {
+					throw e;
+				}
+				long backoffMills = BUSY_BACKOFF_MILLS << (i - 1);
+				log.warn("分片{}上传时服务端繁忙，{}ms后重试", uploadPartRequest.getChunkIndex(), backoffMills);
+				Thread.sleep(backoffMills);
+				uploadPartRequest.getInputStream().reset();
+			}
+		}
+	}
+	
+	/**
+	 * 按分片大小创建并发控制，在途分片总大小不超过maxInFlightBytes
+	 */
+	private UploadConcurrencyLimiter newLimiter(long partSize) {
+		int threadPoolCore = mosUploadConfig.getThreadPoolCore();
+		if (!mosUploadConfig.isAdaptiveConcurrency()) {
+			return new UploadConcurrencyLimiter(threadPoolCore, threadPoolCore, false);
+		}
+		int maxLimit = (int) Math.max(1, Math.min(mosUploadConfig.getMaxConcurrency(), mosUploadConfig.getMaxInFlightBytes() / Math.max(partSize, 1)));
+		return new UploadConcurrencyLimiter(threadPoolCore, maxLimit, true);
 	}
 	
 	private InitUploadResult initUpload(UploadInitRequest uploadInitRequest, String sign) throws IOException {
@@ -208,6 +399,18 @@ public class MultipartOperation {
 		String sign = mosSdk.getSign(pathname, 2, TimeUnit.HOURS);
 		long lastModified = file.lastModified();
 		try {
+			if (mosUploadConfig.isPutObject() && file.length() <= mosUploadConfig.getMinPartSize() && file.length() <= mosUploadConfig.getBatchUploadMaxFileSize()) {
+				if (putObject(file, uploadInfo, sign, lastModified, uploadProcessListener)) {
+					taskTimeWatch.end();
+					return;
+				}
+				log.info("{}相同的文件正在分片上传，改为分片上传", pathname);
+			}
+			if (mosUploadConfig.isPipelineUpload() && file.length() > mosUploadConfig.getMinPartSize()) {
+				uploadFileByPipeline(file, uploadInfo, sign, lastModified, uploadProcessListener);
+				taskTimeWatch.end();
+				return;
+			}
 			IOUtils.FileSplitResult fileSplitResult = mt.spring.mos.base.utils.IOUtils.splitFile(file, mosUploadConfig.getMinPartSize(), mosUploadConfig.getMaxPartSize(), mosUploadConfig.getExpectChunks());
 			List<IOUtils.UploadPart> uploadParts = fileSplitResult.getUploadParts();
 			long partSize = fileSplitResult.getPartSize();
@@ -228,9 +431,12 @@ public class MultipartOperation {
 				uploadProcessListener.init(chunks);
 			}
 			List<Future<?>> futures = new ArrayList<>();
+			UploadConcurrencyLimiter limiter = newLimiter(partSize);
 			log.debug("开始上传{}分片...", pathname);
 			for (int i = 0; i < chunks; i++) {
-				futures.add(getThreadPoolExecutor().submit(new Task(initUploadResult, fileSplitResult, i, pathname, uploadInfo.isCover(), sign, uploadProcessListener)));
+				checkFailed(futures);
+				limiter.acquire();
+				futures.add(getUploadExecutor().submit(new Task(initUploadResult, fileSplitResult, i, pathname, uploadInfo.isCover(), sign, uploadProcessListener, limiter)));
 			}
 			for (Future<?> future : futures) {
 				try {
@@ -239,6 +445,7 @@ public class MultipartOperation {
 					throw new UploadException(e);
 				}
 			}
+			log.info("{}上传速度：{}/s，并发数：{}", pathname, SizeUtils.getReadableSize(limiter.getThroughput()), limiter.getLimit());
 			UploadMergeRequest uploadMergeRequest = new UploadMergeRequest(totalMd5, totalSize, chunks, false, false, lastModified, uploadInfo);
 			log.debug("开始合并：{}", pathname);
 			merge(uploadMergeRequest, sign);
@@ -253,6 +460,145 @@ public class MultipartOperation {
 		}
 	}
 	
+	/**
+	 * 小文件一次请求上传：读入内存计算md5后整体发送，服务端去重或直接写入最终文件
+	 *
+	 * @return 相同的文件正在分片上传时返回false，需要改为分片上传续传
+	 */
+	private boolean putObject(File file, UploadInfo uploadInfo, String sign, long lastModified, @Nullable UploadProcessListener uploadProcessListener) throws IOException {
+		if (uploadProcessListener != null) {
+			uploadProcessListener.init(1);
+		}
+		byte[] content = FileUtils.readFileToByteArray(file);
+		PutObjectRequest putObjectRequest = new PutObjectRequest(DigestUtils.md5Hex(content), content, lastModified, uploadInfo);
+		String url = mosConfig.getHost() + "/upload/" + mosConfig.getBucketName() + "/object?sign=" + URLEncoder.encode(sign, "UTF-8") + "&" + putObjectRequest.buildQuery();
+		CloseableHttpResponse response = client.put(url, putObjectRequest.buildEntity());
+		if (response.getStatusLine().getStatusCode() == HttpStatus.SC_CONFLICT) {
+			EntityUtils.consumeQuietly(response.getEntity());
+			return false;
+		}
+		client.checkSuccessAndGetResult(response, JSONObject.class);
+		if (uploadProcessListener != null) {
+			uploadProcessListener.addDone();
+		}
+		log.info("{}上传完成!", uploadInfo.getPathname());
+		return true;
+	}
+	
+	/**
+	 * 流水线上传：用文件指纹初始化，顺序读取分片的同时计算分片md5和文件md5，读到的分片直接交给线程池上传，
+	 * 文件只读一遍，在途分片数由并发控制调整，文件md5在合并时交给服务端校验和去重
+	 */
+	private void uploadFileByPipeline(File file, UploadInfo uploadInfo, String sign, long lastModified, @Nullable UploadProcessListener uploadProcessListener) throws IOException, InterruptedException {
+		String pathname = uploadInfo.getPathname();
+		IOUtils.SplitResult splitResult = IOUtils.split(file.length(), mosUploadConfig.getMinPartSize(), getPooledMaxPartSize(), mosUploadConfig.getExpectChunks());
+		int chunks = splitResult.getChunks();
+		long partSize = splitResult.getPartSize();
+		long totalSize = splitResult.getTotalSize();
+		log.info("{}分片数：" + chunks + ",分片大小：" + SizeUtils.getReadableSize(partSize), pathname);
+		//已知md5时计入指纹，采样不到的原地修改不会复用旧分片
+		String fingerprint = IOUtils.getFingerprint(file, uploadInfo.getMd5());
+		log.debug("{}初始化...", pathname);
+		InitUploadResult initUploadResult = initUpload(new UploadInitRequest(fingerprint, totalSize, chunks, lastModified, uploadInfo), sign);
+		if (initUploadResult.isFileExists()) {
+			log.info("{}上传完成", pathname);
+			return;
+		}
+		if (uploadProcessListener != null) {
+			uploadProcessListener.init(chunks);
+		}
+		MessageDigest totalDigest = DigestUtils.getMd5Digest();
+		UploadConcurrencyLimiter limiter = newLimiter(partSize);
+		log.debug("开始上传{}分片...", pathname);
+		int uploadedChunks;
+		try (FileInputStream inputStream = new FileInputStream(file)) {
+			uploadedChunks = uploadByPipeline(inputStream, chunkIndex -> (int) partSize, partSize, initUploadResult, pathname, fingerprint, totalSize, totalDigest, limiter, sign, uploadProcessListener);
+		}
+		Assert.state(uploadedChunks == chunks, "文件在上传过程中被修改：" + file);
+		String md5 = Hex.encodeHexString(totalDigest.digest());
+		Assert.state(uploadInfo.getMd5() == null || uploadInfo.getMd5().equalsIgnoreCase(md5), "文件在上传过程中被修改：" + file);
+		log.info("{}上传速度：{}/s，并发数：{}", pathname, SizeUtils.getReadableSize(limiter.getThroughput()), limiter.getLimit());
+		//等待合并结果，md5校验失败时才能报告给调用方
+		UploadMergeRequest uploadMergeRequest = new UploadMergeRequest(fingerprint, totalSize, chunks, true, true, lastModified, uploadInfo);
+		uploadMergeRequest.setMd5(md5);
+		log.debug("开始合并：{}", pathname);
+		merge(uploadMergeRequest, sign);
+	}
+	
+	/**
+	 * 顺序读取分片的同时计算文件md5，读到的分片交给线程池上传，读取前先等待并发控制，在途分片占用的内存有上限
+	 *
+	 * @param inputStream          输入流，读完为止
+	 * @param partSizes            每个分片的大小
+	 * @param preallocatedPartSize 分片大小固定时传入，存储服务器直接写入预分配文件
+	 * @param totalDigest          文件md5
+	 * @return 分片数
+	 */
+	private int uploadByPipeline(InputStream inputStream, IntUnaryOperator partSizes, @Nullable Long preallocatedPartSize, InitUploadResult initUploadResult, String pathname, String totalMd5, long totalSize, MessageDigest totalDigest, UploadConcurrencyLimiter limiter, String sign, @Nullable UploadProcessListener uploadProcessListener) throws IOException, InterruptedException {
+		List<Future<?>> futures = new ArrayList<>();
+		int chunkIndex = 0;
+		while (true) {
+			checkFailed(futures);
+			limiter.acquire();
+			int partSize = partSizes.applyAsInt(chunkIndex);
+			BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(partSize);
+			boolean submitted = false;
+			int length;
+			try {
+				byte[] buffer = pooledBuffer.get();
+				length = org.apache.commons.io.IOUtils.read(inputStream, buffer, 0, partSize);
+				if (length == 0 && chunkIndex > 0) {
+					break;
+				}
+				totalDigest.update(buffer, 0, length);
+				if (initUploadResult.hasUploaded(chunkIndex)) {
+					if (uploadProcessListener != null) {
+						uploadProcessListener.addDone();
+					}
+				} else {
+					MessageDigest chunkDigest = DigestUtils.getMd5Digest();
+					chunkDigest.update(buffer, 0, length);
+					UploadPartRequest uploadPartRequest = new UploadPartRequest(pathname, totalMd5, totalSize, Hex.encodeHexString(chunkDigest.digest()), chunkIndex, new ByteArrayInputStream(buffer, 0, length), length);
+					uploadPartRequest.setPartSize(preallocatedPartSize);
+					futures.add(getUploadExecutor().submit(new BufferedPartTask(initUploadResult, uploadPartRequest, sign, pooledBuffer, limiter, uploadProcessListener)));
+					submitted = true;
+				}
+			} finally {
+				if (!submitted) {
+					pooledBuffer.close();
+					limiter.release();
+				}
+			}
+			chunkIndex++;
+			if (length < partSize) {
+				break;
+			}
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw new UploadException(e);
+			}
+		}
+		return chunkIndex;
+	}
+	
+	/**
+	 * 已有分片上传失败时不再继续读取
+	 */
+	private void checkFailed(List<Future<?>> futures) throws InterruptedException {
+		for (Future<?> future : futures) {
+			if (future.isDone()) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new UploadException(e);
+				}
+			}
+		}
+	}
+	
 	private void merge(UploadMergeRequest uploadMergeRequest, String sign) throws IOException {
 		log.info("合并中...");
 		String host = mosSdk.getMosConfig().getHost();
@@ -296,10 +642,12 @@ public class MultipartOperation {
 				inputStream = response.getEntity().getContent();
 				randomAccessFile = new RandomAccessFile(tempFile, "rw");
 				randomAccessFile.seek(part.getStart());
-				byte[] buffer = new byte[4096];
-				int read;
-				while ((read = inputStream.read(buffer)) != -1) {
-					randomAccessFile.write(buffer, 0, read);
+				try (BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE)) {
+					byte[] buffer = pooledBuffer.get();
+					int read;
+					while ((read = inputStream.read(buffer)) != -1) {
+						randomAccessFile.write(buffer, 0, read);
+					}
 				}
 				log.debug("[{}]分片{}下载完成！", pathname, part.getIndex());
 				recordFile.finish(part.getIndex());
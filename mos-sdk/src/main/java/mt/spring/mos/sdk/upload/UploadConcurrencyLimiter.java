@@ -0,0 +1,118 @@
+package mt.spring.mos.sdk.upload;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static mt.spring.mos.base.utils.IOUtils.MB;
+
+/**
+ * 上传并发控制：按AIMD调整在途分片数。
+ * 分片上传成功且单位延迟正常时，每完成一轮在途分片并发数加1；
+ * 服务端返回429/503或单位延迟超过基准的2倍时并发数减半，同一轮在途的分片只减一次。
+ * 基准为观察到的最小单位延迟（每MB毫秒数），因延迟减半后适当放宽，网络持续变慢时不会一直减半
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Slf4j
+public class UploadConcurrencyLimiter {
+	private static final int MIN_LIMIT = 1;
+	private static final double LATENCY_SPIKE_RATIO = 2;
+	private static final double BASE_LATENCY_RELAX_RATIO = 1.2;
+	private final int maxLimit;
+	private final boolean adaptive;
+	private final long createTime = System.currentTimeMillis();
+	private double limit;
+	private int inFlight;
+	private double baseLatency = Double.MAX_VALUE;
+	private long maxPartBytes;
+	private long lastDecreaseTime;
+	private long totalBytes;
+	
+	/**
+	 * @param initLimit 初始并发数
+	 * @param maxLimit  最大并发数
+	 * @param adaptive  是否自适应，为false时并发数固定为initLimit
+	 */
+	public UploadConcurrencyLimiter(int initLimit, int maxLimit, boolean adaptive) {
+		this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+		this.limit = Math.max(MIN_LIMIT, Math.min(initLimit, this.maxLimit));
+		this.adaptive = adaptive;
+	}
+	
+	/**
+	 * 等待在途分片数低于并发数
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (inFlight >= getLimit()) {
+			wait();
+		}
+		inFlight++;
+	}
+	
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+	
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+	
+	/**
+	 * 分片上传成功
+	 *
+	 * @param startTime 分片开始上传的时间
+	 * @param bytes     分片大小
+	 */
+	public synchronized void onSuccess(long startTime, long bytes) {
+		totalBytes += bytes;
+		if (!adaptive) {
+			return;
+		}
+		maxPartBytes = Math.max(maxPartBytes, bytes);
+		//最后一个分片可能很小，固定开销占比大，不参与延迟判断
+		if (bytes > 0 && bytes * 2 >= maxPartBytes) {
+			double latency = (double) Math.max(System.currentTimeMillis() - startTime, 1) * MB / bytes;
+			if (latency > baseLatency * LATENCY_SPIKE_RATIO) {
+				if (decrease(startTime, "延迟突增")) {
+					baseLatency *= BASE_LATENCY_RELAX_RATIO;
+				}
+				return;
+			}
+			baseLatency = Math.min(baseLatency, latency);
+		}
+		if (limit < maxLimit) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * 服务端繁忙
+	 *
+	 * @param startTime 分片开始上传的时间
+	 */
+	public synchronized void onBusy(long startTime) {
+		if (!adaptive) {
+			return;
+		}
+		decrease(startTime, "服务端繁忙");
+	}
+	
+	private boolean decrease(long startTime, String reason) {
+		if (startTime < lastDecreaseTime) {
+			return false;
+		}
+		lastDecreaseTime = System.currentTimeMillis();
+		limit = Math.max(MIN_LIMIT, limit / 2);
+		log.debug("{}，并发数调整为{}", reason, getLimit());
+		return true;
+	}
+	
+	/**
+	 * @return 平均上传速度，单位byte/s
+	 */
+	public synchronized long getThroughput() {
+		return totalBytes * 1000 / Math.max(System.currentTimeMillis() - createTime, 1);
+	}
+}
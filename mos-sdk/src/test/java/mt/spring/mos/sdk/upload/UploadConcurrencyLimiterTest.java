@@ -0,0 +1,104 @@
+package mt.spring.mos.sdk.upload;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static mt.spring.mos.base.utils.IOUtils.MB;
+import static org.junit.Assert.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/24
+ */
+public class UploadConcurrencyLimiterTest {
+	
+	private long startedAgo(long mills) {
+		return System.currentTimeMillis() - mills;
+	}
+	
+	@Test
+	public void testNotAdaptive() {
+		UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(3, 10, false);
+		for (int i = 0; i < 10; i++) {
+			limiter.onSuccess(startedAgo(100), MB);
+		}
+		assertEquals(3, limiter.getLimit());
+		limiter.onBusy(startedAgo(100));
+		assertEquals(3, limiter.getLimit());
+	}
+	
+	@Test
+	public void testInitLimitBounded() {
+		assertEquals(4, new UploadConcurrencyLimiter(8, 4, true).getLimit());
+		assertEquals(1, new UploadConcurrencyLimiter(0, 4, true).getLimit());
+	}
+	
+	@Test
+	public void testIncreaseToMaxLimit() {
+		UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(2, 4, true);
+		limiter.onSuccess(startedAgo(100), MB);
+		limiter.onSuccess(startedAgo(100), MB);
+		//每完成一轮在途分片加1
+		assertEquals(2, limiter.getLimit());
+		limiter.onSuccess(startedAgo(100), MB);
+		assertEquals(3, limiter.getLimit());
+		for (int i = 0; i < 20; i++) {
+			limiter.onSuccess(startedAgo(100), MB);
+		}
+		assertEquals(4, limiter.getLimit());
+	}
+	
+	@Test
+	public void testBusyHalvesOncePerRound() {
+		UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(8, 8, true);
+		long startTime = startedAgo(1000);
+		limiter.onBusy(startTime);
+		assertEquals(4, limiter.getLimit());
+		//同一轮在途的分片只减一次
+		limiter.onBusy(startTime);
+		assertEquals(4, limiter.getLimit());
+		limiter.onBusy(System.currentTimeMillis() + 1);
+		assertEquals(2, limiter.getLimit());
+		limiter.onBusy(System.currentTimeMillis() + 1);
+		limiter.onBusy(System.currentTimeMillis() + 2);
+		assertEquals(1, limiter.getLimit());
+	}
+	
+	@Test
+	public void testLatencySpikeBacksOff() {
+		UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(8, 8, true);
+		limiter.onSuccess(startedAgo(100), MB);
+		assertEquals(8, limiter.getLimit());
+		limiter.onSuccess(startedAgo(1000), MB);
+		assertEquals(4, limiter.getLimit());
+	}
+	
+	@Test
+	public void testSmallLastPartIgnoredForLatency() {
+		UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(4, 8, true);
+		limiter.onSuccess(startedAgo(100), MB);
+		limiter.onSuccess(startedAgo(1000), MB / 4);
+		assertTrue(limiter.getLimit() >= 4);
+	}
+	
+	@Test
+	public void testAcquireWaitsForRelease() throws InterruptedException {
+		UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(1, 1, false);
+		limiter.acquire();
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try {
+				limiter.acquire();
+				acquired.countDown();
+			} catch (InterruptedException ignored) {
+			}
+		});
+		thread.start();
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		limiter.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		thread.join();
+	}
+}
@@ -3,8 +3,10 @@ package mt.spring.mos.server.config;
 import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import mt.common.entity.ResResult;
+import mt.spring.mos.server.exception.FileUploadingException;
 import org.apache.catalina.connector.ClientAbortException;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpStatus;
 import org.springframework.validation.BindException;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
@@ -36,6 +38,9 @@ public class ExceptionHandle {
 		if (e instanceof NoHandlerFoundException) {
 			log.error(e.getMessage());
 		}
+		if (e instanceof FileUploadingException) {
+			response.setStatus(HttpStatus.CONFLICT.value());
+		}
 		
 		ResResult resResult = new ResResult();
 		resResult.setStatus(ResResult.Status.error);
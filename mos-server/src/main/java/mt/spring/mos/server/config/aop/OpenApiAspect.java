@@ -3,6 +3,7 @@ package mt.spring.mos.server.config.aop;
 import mt.spring.mos.sdk.utils.MosEncrypt;
 import mt.spring.mos.server.annotation.OpenApi;
 import mt.spring.mos.server.config.MosUserContext;
+import mt.spring.mos.server.entity.dto.ResourceReadPlan;
 import mt.spring.mos.server.entity.po.AccessControl;
 import mt.spring.mos.server.entity.po.Bucket;
 import mt.spring.mos.server.entity.po.Resource;
@@ -10,7 +11,7 @@ import mt.spring.mos.server.entity.po.User;
 import mt.spring.mos.server.service.AccessControlService;
 import mt.spring.mos.server.service.BucketGrantService;
 import mt.spring.mos.server.service.BucketService;
-import mt.spring.mos.server.service.ResourceService;
+import mt.spring.mos.server.service.ResourceReadPlanService;
 import mt.utils.ReflectUtils;
 import mt.utils.common.Assert;
 import org.apache.commons.lang3.ArrayUtils;
@@ -48,7 +49,7 @@ public class OpenApiAspect extends AbstractAspect {
 	@Autowired
 	private AccessControlService accessControlService;
 	@Autowired
-	private ResourceService resourceService;
+	private ResourceReadPlanService resourceReadPlanService;
 	@Autowired
 	private BucketGrantService bucketGrantService;
 	
@@ -127,8 +128,9 @@ public class OpenApiAspect extends AbstractAspect {
 			Assert.state(pathname != null, "路径名不能为空");
 			bucket = bucketService.findOne("bucketName", bucketName);
 			Assert.notNull(bucket, "资源不存在");
-			Resource resource = resourceService.findResourceByPathnameAndBucketId(pathname, bucket.getId());
-			Assert.notNull(resource, "资源不存在");
+			ResourceReadPlan readPlan = resourceReadPlanService.findReadPlan(bucket.getId(), pathname);
+			Assert.notNull(readPlan, "资源不存在");
+			Resource resource = readPlan.getResource();
 			if (resource.getIsPublic() == null || !resource.getIsPublic()) {
 				//无访问权限
 				throwNoPermException(response);
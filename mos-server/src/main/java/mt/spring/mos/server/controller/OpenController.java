@@ -4,16 +4,21 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import mt.common.entity.ResResult;
+import mt.common.utils.BeanUtils;
 import mt.spring.mos.server.annotation.OpenApi;
 import mt.spring.mos.server.config.aop.MosContext;
 import mt.spring.mos.server.entity.BucketPerm;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.dto.BatchUploadItem;
 import mt.spring.mos.server.entity.dto.InitUploadDto;
+import mt.spring.mos.server.entity.dto.ResourceReadPlan;
 import mt.spring.mos.server.entity.dto.ResourceSearchDto;
 import mt.spring.mos.server.entity.po.*;
 import mt.spring.mos.server.listener.ClientWorkLogEvent;
 import mt.spring.mos.server.service.*;
 import mt.spring.mos.server.service.resource.render.Content;
 import mt.spring.mos.server.service.resource.render.ResourceRender;
+import mt.spring.mos.server.service.resource.render.template.AbstractTemplateRender;
 import mt.spring.mos.server.utils.HttpClientServletUtils;
 import mt.utils.common.Assert;
 import org.apache.commons.lang3.StringUtils;
@@ -23,19 +28,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.Ordered;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
 
 /**
  * @Author Martin
@@ -68,6 +75,14 @@ public class OpenController implements InitializingBean {
 	private FileHouseRelaClientService fileHouseRelaClientService;
 	@Autowired
 	private AuditService auditService;
+	@Autowired
+	private ResourceReadPlanService resourceReadPlanService;
+	@Autowired
+	private HotObjectCacheService hotObjectCacheService;
+	@Autowired
+	private BatchUploadService batchUploadService;
+	@Autowired
+	private MosServerProperties mosServerProperties;
 	
 	@Override
 	public void afterPropertiesSet() throws Exception {
@@ -137,22 +152,22 @@ public class OpenController implements InitializingBean {
 				Client newClient = clientService.findRandomAvalibleClientForUpload(totalSize);
 				log.info("{}:原client[{}]不可用，重新分配新的client[{}]", pathname, client.getName(), newClient.getName());
 				//删掉原来上传的分片
-				fileHouseItemService.deleteByFileHouseId(fileHouse.getId());
+				fileHouseItemService.resetChunks(fileHouse.getId());
 				//新增删除原分片的任务
 				applicationEventPublisher.publishEvent(new ClientWorkLogEvent(this, ClientWorkLog.Action.DELETE_DIR, ClientWorkLog.ExeStatus.NOT_START, client.getId(), fileHouse.getChunkTempPath()));
 				//设置新的client
 				fileHouseRelaClient.setClientId(newClient.getId());
 				fileHouseRelaClientService.updateById(fileHouseRelaClient);
 			} else {
-				List<FileHouseItem> items = fileHouseItemService.findList("fileHouseId", fileHouse.getId());
-				if (items != null) {
-					initUploadDto.setExistedChunkIndexs(items.stream().map(FileHouseItem::getChunkIndex).collect(Collectors.toList()));
-				}
+				initUploadDto.setExistedChunkIndexs(fileHouseItemService.findChunkIndexs(fileHouse.getId()));
 			}
 		}
 		
 		initUploadDto.setFileExists(md5Exists);
-		fileHouseService.getOrCreateFileHouse(totalMd5, totalSize, chunks);
+		FileHouse uploadFileHouse = fileHouseService.getOrCreateFileHouse(totalMd5, totalSize, chunks);
+		if (!md5Exists) {
+			fileHouseItemService.signDirectUpload(initUploadDto, uploadFileHouse, bucket.getId());
+		}
 		return ResResult.success(initUploadDto);
 	}
 	
@@ -167,10 +182,63 @@ public class OpenController implements InitializingBean {
 							Long totalSize,
 							String chunkMd5,
 							Integer chunkIndex) throws Exception {
-		FileHouse fileHouse = fileHouseService.findByMd5AndSize(totalMd5, totalSize);
-		Assert.notNull(fileHouse, "fileHouse不存在");
 		Assert.notNull(chunkIndex, "chunkIndex不能为空");
-		fileHouseItemService.upload(fileHouse.getId(), chunkMd5, chunkIndex, file.getInputStream());
+		long fileHouseId = fileHouseItemService.findUploadingFileHouseId(totalMd5, totalSize);
+		fileHouseItemService.upload(fileHouseId, chunkMd5, chunkIndex, null, file.getInputStream(), file.getSize());
+		return ResResult.success();
+	}
+	
+	@PutMapping("/upload/{bucketName}")
+	@ApiOperation("上传分片，请求体为分片内容")
+	@OpenApi(perms = BucketPerm.INSERT)
+	public ResResult uploadChunk(@PathVariable String bucketName,
+								 String pathname,
+								 String totalMd5,
+								 Long totalSize,
+								 String chunkMd5,
+								 Integer chunkIndex,
+								 Long partSize,
+								 HttpServletRequest request) throws Exception {
+		Assert.notNull(chunkIndex, "chunkIndex不能为空");
+		long fileHouseId = fileHouseItemService.findUploadingFileHouseId(totalMd5, totalSize);
+		fileHouseItemService.upload(fileHouseId, chunkMd5, chunkIndex, partSize, request.getInputStream(), request.getContentLengthLong());
+		return ResResult.success();
+	}
+	
+	@PutMapping("/upload/{bucketName}/batch")
+	@ApiOperation("批量上传小文件，请求体为连续的文件帧，pathname为签名的路径")
+	@OpenApi(perms = BucketPerm.INSERT)
+	public ResResult batchUpload(@PathVariable String bucketName,
+								 String pathname,
+								 Bucket bucket,
+								 HttpServletRequest request) throws Exception {
+		return ResResult.success(batchUploadService.upload(bucket, pathname, request.getInputStream()));
+	}
+	
+	@PutMapping("/upload/{bucketName}/object")
+	@ApiOperation("上传小文件，请求体为文件内容，一次请求直接写入最终文件")
+	@OpenApi(perms = BucketPerm.INSERT)
+	public ResResult putObject(@PathVariable String bucketName,
+							   String pathname,
+							   String md5,
+							   Long lastModified,
+							   String contentType,
+							   Boolean isPublic,
+							   @RequestParam(defaultValue = "false") Boolean cover,
+							   Bucket bucket,
+							   HttpServletRequest request) throws Exception {
+		Assert.state(StringUtils.isNotBlank(md5), "md5不能为空");
+		long size = request.getContentLengthLong();
+		Assert.state(size >= 0, "请求缺少Content-Length");
+		BatchUploadItem item = new BatchUploadItem();
+		item.setPathname(pathname);
+		item.setMd5(md5);
+		item.setSizeByte(size);
+		item.setLastModified(lastModified);
+		item.setContentType(contentType);
+		item.setIsPublic(isPublic);
+		item.setCover(cover);
+		batchUploadService.upload(bucket, item, request.getInputStream());
 		return ResResult.success();
 	}
 	
@@ -186,9 +254,17 @@ public class OpenController implements InitializingBean {
 								Long lastModified,
 								@RequestParam(defaultValue = "false") Boolean updateMd5,
 								@RequestParam(defaultValue = "false") Boolean wait,
-								@RequestParam(defaultValue = "false") Boolean cover) throws ExecutionException, InterruptedException {
+								@RequestParam(defaultValue = "false") Boolean cover,
+								String md5) throws ExecutionException, InterruptedException {
 		Assert.notNull(totalMd5, "totalMd5不能为空");
 		Assert.notNull(totalSize, "totalSize不能为空");
+		if (StringUtils.isNotBlank(md5)) {
+			//初始化时使用的是文件指纹，合并时校验客户端计算的md5，等待校验结果返回给客户端
+			updateMd5 = true;
+			wait = true;
+		} else {
+			md5 = null;
+		}
 		Bucket bucket = bucketService.findOne("bucketName", bucketName);
 		Assert.notNull(bucket, "bucket不存在");
 		auditService.doAudit(MosContext.getContext(), Audit.Type.WRITE, Audit.Action.mergeFile);
@@ -196,9 +272,20 @@ public class OpenController implements InitializingBean {
 		if (chunks != null) {
 			fileHouse.setChunks(chunks);
 		}
-		Future<FileHouse> future = fileHouseService.mergeFiles(fileHouse, updateMd5, (result) -> resourceService.addOrUpdateResource(pathname, lastModified, isPublic, contentType, cover, result, bucket));
+		if (fileHouse != null && fileHouse.getFileStatus() == FileHouse.FileStatus.UPLOADING) {
+			//直传的分片由存储服务器回报，合并前确认分片已登记完整
+			fileHouseItemService.waitForChunks(fileHouse.getId(), fileHouse.getChunks());
+		}
+		Future<FileHouse> future = fileHouseService.mergeFiles(fileHouse, updateMd5, md5, (result) -> resourceService.addOrUpdateResource(pathname, lastModified, isPublic, contentType, cover, result, bucket));
 		if (wait) {
-			future.get();
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
 		}
 		return ResResult.success();
 	}
@@ -228,31 +315,91 @@ public class OpenController implements InitializingBean {
 		Bucket bucket = bucketService.findOne("bucketName", bucketName);
 		Assert.notNull(bucket, "bucket不存在");
 		
-		Resource resource = resourceService.findResourceByPathnameAndBucketId(originPathname, bucket.getId());
-		Client client = clientService.findRandomAvalibleClientForVisit(resource, thumb);
-		Assert.notNull(resource, "资源不存在");
-		Assert.notNull(client, "资源不存在");
-		String url = resourceService.getDesUrl(client, bucket, resource, thumb);
+		ResourceReadPlan readPlan = resourceReadPlanService.findReadPlan(bucket.getId(), originPathname);
+		Assert.notNull(readPlan, "资源不存在");
+		Resource resource = readPlan.getResource();
+		boolean useThumbFileHouse = thumb && readPlan.getFileHouse() != null;
+		if (useThumbFileHouse) {
+			Assert.notNull(readPlan.getThumbFileHouse(), "资源" + originPathname + "无缩略图");
+		}
+		FileHouse fileHouse = useThumbFileHouse ? readPlan.getThumbFileHouse() : readPlan.getFileHouse();
 		if (thumb) {
+			//缓存中的资源不能直接修改
+			resource = BeanUtils.transform(Resource.class, resource);
 			resource.setContentType("image/jpeg");
-		} else {
+		}
+		ResourceRender render = download ? null : findRender(request, bucket, resource);
+		if (!(render instanceof AbstractTemplateRender)) {
+			//由元数据直接响应304和HEAD请求，不访问客户端
+			String etag = fileHouse != null ? "\"" + fileHouse.getMd5() + "\"" : null;
+			if (new ServletWebRequest(request, httpServletResponse).checkNotModified(etag, getLastModified(resource))) {
+				return null;
+			}
+			if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+				httpServletResponse.setContentType(render == null ? "application/octet-stream" : render.getContentType(resource));
+				httpServletResponse.setContentLengthLong(fileHouse != null ? fileHouse.getSizeByte() : resource.getSizeByte());
+				httpServletResponse.setHeader("Accept-Ranges", "bytes");
+				return null;
+			}
+		}
+		List<Long> clientIds = useThumbFileHouse ? readPlan.getThumbClientIds() : readPlan.getClientIds();
+		if (!(render instanceof AbstractTemplateRender) && hotObjectCacheService.isCacheable(fileHouse, request)) {
+			//热点小文件直接从内存响应
+			ByteBuffer content = hotObjectCacheService.get(fileHouse, () -> resourceService.getDesUrl(clientService.findRandomAvalibleClientForVisitByIds(clientIds), bucket, originPathname, fileHouse));
+			if (!thumb) {
+				auditService.auditResourceVisits(resource.getId());
+			}
+			auditService.doAudit(MosContext.getContext(), Audit.Type.READ, Audit.Action.visit, thumb ? "缩略图(缓存)" : "缓存", content.remaining());
+			httpServletResponse.setContentType(render == null ? "application/octet-stream" : render.getContentType(resource));
+			httpServletResponse.setContentLength(content.remaining());
+			Channels.newChannel(httpServletResponse.getOutputStream()).write(content);
+			return null;
+		}
+		Client client = clientService.findRandomAvalibleClientForVisitByIds(clientIds);
+		Assert.notNull(client, "资源不存在");
+		String url = resourceService.getDesUrl(client, bucket, originPathname, fileHouse);
+		if (!thumb) {
 			auditService.auditResourceVisits(resource.getId());
 		}
+		if (bucket.getRedirectVisit() != null && bucket.getRedirectVisit() && !(render instanceof AbstractTemplateRender)) {
+			if (StringUtils.isNotBlank(mosServerProperties.getVisitSignKey())) {
+				//重定向到客户端的短期签名地址，不经服务端转发
+				String responseContentType = render == null ? "application/octet-stream" : render.getContentType(resource);
+				auditService.doAudit(MosContext.getContext(), Audit.Type.READ, Audit.Action.visit, thumb ? "缩略图(重定向)" : "重定向");
+				httpServletResponse.sendRedirect(resourceService.getDesUrl(client, bucket, originPathname, fileHouse, responseContentType));
+				return null;
+			}
+			//未签名的客户端地址永久有效，会绕过服务端的权限校验，改为转发
+			log.warn("bucket {}开启了重定向访问，但未配置mos.server.visit-sign-key，改为转发", bucket.getBucketName());
+		}
 		Audit audit = auditService.startAudit(MosContext.getContext(), Audit.Type.READ, Audit.Action.visit, thumb ? "缩略图" : null);
-		if (download) {
+		if (render == null) {
 			String responseContentType = "application/octet-stream";
 			Map<String, String> headers = new HashMap<>();
 			headers.put("content-type", responseContentType);
-			HttpClientServletUtils.forward(httpClient, url, request, httpServletResponse, auditService.createAuditStream(httpServletResponse.getOutputStream(), audit), headers);
-		} else {
-			for (ResourceRender render : renders) {
-				if (render.shouldRend(request, bucket, resource)) {
-					return render.rend(new ModelAndView(), request, httpServletResponse, new Content(bucket, resource, client, url, audit));
-				}
+			HttpClientServletUtils.forwardGetAsync(httpClient, url, request, httpServletResponse, null, headers, auditService.createAuditCallback(audit));
+			return null;
+		}
+		return render.rend(new ModelAndView(), request, httpServletResponse, new Content(bucket, resource, client, url, audit));
+	}
+	
+	private long getLastModified(Resource resource) {
+		if (resource.getLastModified() != null && resource.getLastModified() > 0) {
+			return resource.getLastModified();
+		}
+		if (resource.getUpdatedDate() != null) {
+			return resource.getUpdatedDate().getTime();
+		}
+		return resource.getCreatedDate() != null ? resource.getCreatedDate().getTime() : -1;
+	}
+	
+	private ResourceRender findRender(HttpServletRequest request, Bucket bucket, Resource resource) {
+		for (ResourceRender render : renders) {
+			if (render.shouldRend(request, bucket, resource)) {
+				return render;
 			}
-			throw new IllegalStateException("资源没有相关的渲染器");
 		}
-		return null;
+		throw new IllegalStateException("资源没有相关的渲染器");
 	}
 	
 	@GetMapping("/list/{bucketName}/**")
@@ -13,7 +13,11 @@ public class ReadableOutputStream extends OutputStream {
 	private final OutputStream outputStream;
 	private long readed;
 	private final ReadEvent readEvent;
+	private boolean ended;
 	
+	/**
+	 * onClose和onException只会回调其中一个，且只回调一次
+	 */
 	public interface ReadEvent {
 		void onFlush(long readed);
 		
@@ -31,9 +35,9 @@ public class ReadableOutputStream extends OutputStream {
 	public void write(int b) throws IOException {
 		try {
 			outputStream.write(b);
-			readed += b;
+			readed++;
 		} catch (IOException e) {
-			readEvent.onException(readed, e);
+			onException(e);
 			throw e;
 		}
 	}
@@ -44,7 +48,7 @@ public class ReadableOutputStream extends OutputStream {
 			outputStream.write(b);
 			readed += b.length;
 		} catch (IOException e) {
-			readEvent.onException(readed, e);
+			onException(e);
 			throw e;
 		}
 	}
@@ -55,7 +59,7 @@ public class ReadableOutputStream extends OutputStream {
 			outputStream.write(b, off, len);
 			readed += len;
 		} catch (IOException e) {
-			readEvent.onException(readed, e);
+			onException(e);
 			throw e;
 		}
 	}
@@ -68,7 +72,22 @@ public class ReadableOutputStream extends OutputStream {
 	
 	@Override
 	public void close() throws IOException {
-		outputStream.close();
-		readEvent.onClose(readed);
+		try {
+			outputStream.close();
+		} catch (IOException e) {
+			onException(e);
+			throw e;
+		}
+		if (!ended) {
+			ended = true;
+			readEvent.onClose(readed);
+		}
+	}
+	
+	private void onException(IOException e) {
+		if (!ended) {
+			ended = true;
+			readEvent.onException(readed, e);
+		}
 	}
 }
@@ -1,8 +1,10 @@
 package mt.spring.mos.server.controller;
 
+import mt.spring.mos.server.service.RenderCacheService;
 import mt.spring.mos.server.utils.UrlEncodeUtils;
 import mt.utils.http.MyHttp;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -20,15 +22,18 @@ import java.util.Map;
 @RequestMapping
 public class RenderController {
 	private static final DefaultUriBuilderFactory uriFactory = new DefaultUriBuilderFactory();
+	@Autowired
+	private RenderCacheService renderCacheService;
 	
 	@GetMapping("/render/show")
 	public String showMarkDown(HttpServletRequest request, ModelMap modelMap, String base64Url, String title, String templatePath, String charset) {
-		MyHttp myHttp = new MyHttp(uriFactory.expand(UrlEncodeUtils.base64Decode(base64Url)).toString());
-		if (StringUtils.isBlank(charset)) {
-			charset = "UTF-8";
-		}
-		myHttp.setEncode(charset);
-		String content = myHttp.connect();
+		String url = uriFactory.expand(UrlEncodeUtils.base64Decode(base64Url)).toString();
+		String encode = StringUtils.isBlank(charset) ? "UTF-8" : charset;
+		String content = renderCacheService.getContentByUrl(url, encode, () -> {
+			MyHttp myHttp = new MyHttp(url);
+			myHttp.setEncode(encode);
+			return myHttp.connect();
+		});
 		Map<String, String[]> parameterMap = request.getParameterMap();
 		if (parameterMap != null) {
 			for (Map.Entry<String, String[]> stringEntry : parameterMap.entrySet()) {
@@ -3,9 +3,12 @@ package mt.spring.mos.server.controller.discovery;
 import lombok.extern.slf4j.Slf4j;
 import mt.common.entity.ResResult;
 import mt.common.tkmapper.Filter;
+import mt.spring.mos.base.utils.UploadTokenUtils;
+import mt.spring.mos.base.utils.VisitSignUtils;
 import mt.spring.mos.server.entity.MosServerProperties;
 import mt.spring.mos.server.entity.po.Client;
 import mt.spring.mos.server.service.ClientService;
+import mt.spring.mos.server.service.FileHouseItemService;
 import mt.spring.mos.server.service.TaskScheduleService;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.FileUtils;
@@ -46,6 +49,8 @@ public class DiscoveryController {
 	private MosServerProperties mosServerProperties;
 	@Autowired
 	private RedissonClient redissonClient;
+	@Autowired
+	private FileHouseItemService fileHouseItemService;
 	private final Map<String, Boolean> isRegistMap = new ConcurrentHashMap<>();
 	
 	/**
@@ -109,6 +114,25 @@ public class DiscoveryController {
 		return ResResult.success();
 	}
 	
+	/**
+	 * 接收存储服务器直传分片的回报
+	 *
+	 * @param token 服务端签发的直传凭证
+	 * @param sign  存储服务器使用签名秘钥对回报内容的签名
+	 */
+	@PutMapping("/chunk")
+	public ResResult reportChunk(String token, Integer chunkIndex, String chunkMd5, Long size, String expires, String sign) {
+		String visitSignKey = mosServerProperties.getVisitSignKey();
+		Assert.state(StringUtils.isNotBlank(visitSignKey), "未配置签名秘钥");
+		Assert.notNull(chunkIndex, "chunkIndex不能为空");
+		Assert.notNull(size, "size不能为空");
+		Assert.state(VisitSignUtils.verify(visitSignKey, UploadTokenUtils.getReportContent(token, chunkIndex, chunkMd5, size), expires, sign), "回报签名无效");
+		UploadTokenUtils.UploadToken uploadToken = UploadTokenUtils.parseToken(visitSignKey, token);
+		Assert.notNull(uploadToken, "上传凭证无效或已过期");
+		fileHouseItemService.reportUploaded(uploadToken, chunkIndex, chunkMd5, size);
+		return ResResult.success();
+	}
+	
 	@Scheduled(fixedDelay = 10 * 1000)
 	public void health() {
 		if (!taskScheduleService.isReady()) {
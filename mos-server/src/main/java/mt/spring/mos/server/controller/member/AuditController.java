@@ -39,14 +39,14 @@ public class AuditController {
 	}
 	
 	@GetMapping("/statistic/flow/{type}/from/{startDate}")
-	@ApiOperation("流量统计")
+	@ApiOperation(value = "流量统计", notes = "按天汇总统计，开始日期所在的整天完整计入")
 	public ResResult flowFromDate(@PathVariable String startDate, @PathVariable Audit.Type type, @ApiIgnore @CurrentUser User currentUser) {
 		List<FlowStatisticVo> list = auditService.findFlowStatisticFrom(currentUser.getId(), type, startDate);
 		return ResResult.success(list);
 	}
 	
 	@GetMapping("/statistic/request/{type}/from/{startDate}")
-	@ApiOperation("请求统计")
+	@ApiOperation(value = "请求统计", notes = "按天汇总统计，开始日期所在的整天完整计入")
 	public ResResult requestsFromDate(@PathVariable String startDate, @PathVariable Audit.Type type, @ApiIgnore @CurrentUser User currentUser) {
 		List<RequestStatisticVo> list = auditService.findRequestStatisticFrom(currentUser.getId(), type, startDate);
 		return ResResult.success(list);
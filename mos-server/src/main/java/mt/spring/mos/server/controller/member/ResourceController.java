@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @Author Martin
@@ -112,9 +113,9 @@ public class ResourceController {
 	public ResResult isBatchExists(@RequestBody CheckFileExistsDto checkFileExistsDto, @ApiIgnore Bucket bucket, @PathVariable String bucketName, @ApiIgnore @CurrentUser User currentUser) {
 		Assert.notNull(checkFileExistsDto, "检查文件不能为空");
 		Map<String, Boolean> checkResult = new HashMap<>();
+		Set<String> exists = resourceService.findExistsPathnames(checkFileExistsDto.getPathnames(), bucket.getId());
 		for (String pathname : checkFileExistsDto.getPathnames()) {
-			Resource resource = resourceService.findResourceByPathnameAndBucketId(pathname, bucket.getId());
-			checkResult.put(pathname, resource != null);
+			checkResult.put(pathname, exists.contains(pathname));
 		}
 		CheckFileExistsBo checkFileExistsBo = new CheckFileExistsBo();
 		checkFileExistsBo.setCheckResults(checkResult);
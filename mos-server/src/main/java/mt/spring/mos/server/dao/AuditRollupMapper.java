@@ -0,0 +1,38 @@
+package mt.spring.mos.server.dao;
+
+import mt.common.mybatis.mapper.BaseMapper;
+import mt.spring.mos.server.entity.po.Audit;
+import mt.spring.mos.server.entity.po.AuditRollup;
+import mt.spring.mos.server.entity.vo.audit.BucketRollupVo;
+import mt.spring.mos.server.entity.vo.audit.ChartBy;
+import mt.spring.mos.server.entity.vo.audit.ChartRollupVo;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Repository
+public interface AuditRollupMapper extends BaseMapper<AuditRollup> {
+	
+	int addRollups(@Param("rollups") Collection<AuditRollup> rollups);
+	
+	List<ChartRollupVo> findChartList(@Param("bucketId") Long bucketId,
+									  @Param("startDate") String startDate,
+									  @Param("endDate") String endDate,
+									  @Param("by") ChartBy by);
+	
+	List<BucketRollupVo> findBucketRollupList(@Param("bucketIds") List<Long> bucketIds,
+											  @Param("dayStart") String dayStart,
+											  @Param("startDate") String startDate,
+											  @Param("type") Audit.Type type);
+	
+	@Delete("delete from mos_audit_rollup where stat_unit = 'hour' and stat_time < #{before}")
+	int deleteHourRollupsBefore(@Param("before") Date before);
+}
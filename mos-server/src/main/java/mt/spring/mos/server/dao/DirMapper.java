@@ -14,4 +14,9 @@ import org.springframework.stereotype.Repository;
 public interface DirMapper extends BaseMapper<Dir> {
 //	@Update("update mos_dir set parent_id = #{desDirId},path = concat(#{desPath},REVERSE(LEFT(REVERSE(path),INSTR(REVERSE(path),'/')))) where parent_id = #{srcDirId}")
 //	int changeDir(@Param("srcDirId") Long srcDirId, @Param("desDirId") Long desDirId, @Param("desPath") String desPath);
+	
+	/**
+	 * 新增文件夹，路径已存在时不修改，都回填id：已存在时由LAST_INSERT_ID(id)返回已有的id
+	 */
+	int insertOrGetId(Dir dir);
 }
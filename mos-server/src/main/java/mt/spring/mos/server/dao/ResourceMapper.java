@@ -9,6 +9,7 @@ import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * @Author Martin
@@ -30,10 +31,18 @@ public interface ResourceMapper extends BaseMapper<Resource> {
 	
 	List<Resource> findNeedGenerateThumb(@Param("suffixs") List<String> suffixs);
 	
-	@Update("update mos_resource set visits = IFNULL(visits,0) + 1 where id = #{resourceId}")
-	int addVisits(Long resourceId);
+	int addVisitsBatch(@Param("visits") Map<Long, Long> visits);
 	
+	int insertBatch(@Param("resources") List<Resource> resources);
 	
-	@Update("update mos_resource set dir_id = #{desDirId} where dir_id = #{srcDirId}")
+	
+	@Update("update mos_resource r join mos_dir d on d.id = #{desDirId}\n" +
+			"set r.dir_id = d.id, r.pathname_hash = md5(concat(d.bucket_id, ':', lower(replace(concat(d.path, '/', r.name), '//', '/'))))\n" +
+			"where r.dir_id = #{srcDirId}")
 	int changeDir(@Param("srcDirId") Long srcDirId, @Param("desDirId") Long desDirId);
+	
+	@Update("update mos_resource r join mos_dir d on r.dir_id = d.id\n" +
+			"set r.pathname_hash = md5(concat(d.bucket_id, ':', lower(replace(concat(d.path, '/', r.name), '//', '/'))))\n" +
+			"where d.id = #{dirId}")
+	int updatePathnameHashByDirId(@Param("dirId") Long dirId);
 }
@@ -42,6 +42,113 @@ public class MosServerProperties {
 	private Integer backCronLimit = 1000;
 	private String currentIp;
 	private Integer asyncTaskThreadCore = 5;
+	/**
+	 * 资源访问签名秘钥，需与客户端mos.client.visit-sign-key一致，为空则不签名
+	 */
+	private String visitSignKey;
+	/**
+	 * 资源访问签名有效期，单位秒
+	 */
+	private Integer visitSignExpireSeconds = 60;
+	/**
+	 * 资源读取缓存最大条数，0表示不缓存
+	 */
+	private Integer readPlanCacheSize = 10000;
+	/**
+	 * 资源读取缓存有效期，单位秒
+	 */
+	private Integer readPlanCacheSeconds = 300;
+	/**
+	 * 客户端探测间隔，单位毫秒
+	 */
+	private Integer clientHealthCheckIntervalMills = 5000;
+	/**
+	 * 客户端连续失败多少次后熔断
+	 */
+	private Integer clientFailureThreshold = 3;
+	/**
+	 * 客户端熔断时长，单位秒
+	 */
+	private Integer clientCircuitOpenSeconds = 30;
+	/**
+	 * 客户端心跳超时时间，单位秒
+	 */
+	private Integer clientBeatTimeoutSeconds = 30;
+	/**
+	 * 热点文件内存缓存总大小（堆外），单位字节，0表示不缓存
+	 */
+	private Long hotObjectCacheBytes = 0L;
+	/**
+	 * 可以缓存的单个文件最大大小，单位字节
+	 */
+	private Long hotObjectMaxBytes = 512 * 1024L;
+	/**
+	 * 模板渲染内容缓存总大小，单位字节（按字符数*2估算），0表示不缓存
+	 */
+	private Long renderCacheBytes = 32 * 1024 * 1024L;
+	/**
+	 * 按地址渲染的内容缓存有效期，单位秒
+	 */
+	private Integer renderCacheSeconds = 60;
+	/**
+	 * 审计队列大小
+	 */
+	private Integer auditQueueSize = 10000;
+	/**
+	 * 审计批量插入条数
+	 */
+	private Integer auditBatchSize = 200;
+	/**
+	 * 审计最长写入间隔，单位毫秒
+	 */
+	private Long auditFlushIntervalMills = 1000L;
+	/**
+	 * 审计队列满时的处理策略
+	 */
+	private AuditQueueFullPolicy auditQueueFullPolicy = AuditQueueFullPolicy.DROP;
+	/**
+	 * 审计明细保留月数，超过的分区直接删除，汇总数据保留，0表示永久保留
+	 */
+	private Integer auditRetentionMonths = 12;
+	/**
+	 * 长下载流量写入汇总的检查点间隔，单位秒，0表示只在结束时写入
+	 */
+	private Integer auditCheckpointSeconds = 300;
+	/**
+	 * 审计分区提前创建的月数
+	 */
+	private Integer auditPartitionAheadMonths = 2;
+	/**
+	 * 是否允许分片直传存储服务器，需配置visitSignKey
+	 */
+	private Boolean directUpload = true;
+	/**
+	 * 分片直传凭证有效期，单位秒
+	 */
+	private Integer uploadTokenExpireSeconds = 86400;
+	/**
+	 * 合并前等待存储服务器回报分片的最长时间，单位毫秒
+	 */
+	private Long uploadReportWaitMills = 10000L;
+	/**
+	 * 上传会话有效期，单位秒，过期后已上传的分片需重新上传
+	 */
+	private Integer uploadSessionExpireSeconds = 604800;
+	/**
+	 * 批量上传时单个文件的最大大小，单位byte，超过的需要分片上传
+	 */
+	private Long batchUploadMaxFileSize = 8 * 1024 * 1024L;
+	
+	public enum AuditQueueFullPolicy {
+		/**
+		 * 丢弃新的审计
+		 */
+		DROP,
+		/**
+		 * 阻塞等待队列空出
+		 */
+		BLOCK
+	}
 	
 	@Data
 	public static class ContentTypeRender {
@@ -0,0 +1,30 @@
+package mt.spring.mos.server.entity.dto;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+import mt.spring.mos.server.entity.po.FileHouse;
+
+/**
+ * 批量上传的文件头
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class BatchUploadItem {
+	private String pathname;
+	private String md5;
+	private Long sizeByte;
+	private Long lastModified;
+	private String contentType;
+	/**
+	 * 为空时使用bucket的默认值
+	 */
+	private Boolean isPublic;
+	private boolean cover;
+	/**
+	 * 去重或写入后对应的文件
+	 */
+	@JSONField(serialize = false, deserialize = false)
+	private FileHouse fileHouse;
+}
@@ -10,5 +10,6 @@ import lombok.Data;
 public class BucketAddDto {
 	private String bucketName;
 	private Boolean defaultIsPublic;
+	private Boolean redirectVisit;
 	private Integer dataFragmentsAmount = 1;
 }
@@ -11,5 +11,6 @@ public class BucketUpdateDto {
 	private Long id;
 	private String bucketName;
 	private Boolean defaultIsPublic;
+	private Boolean redirectVisit;
 	private Integer dataFragmentsAmount;
 }
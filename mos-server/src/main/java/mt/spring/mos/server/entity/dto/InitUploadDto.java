@@ -12,4 +12,12 @@ import java.util.List;
 public class InitUploadDto {
 	private boolean fileExists;
 	private List<Integer> existedChunkIndexs;
+	/**
+	 * 分片直传地址，为空时通过服务端上传
+	 */
+	private String uploadUrl;
+	/**
+	 * 分片直传凭证
+	 */
+	private String uploadToken;
 }
@@ -0,0 +1,33 @@
+package mt.spring.mos.server.entity.dto;
+
+import lombok.Data;
+import mt.spring.mos.server.entity.po.FileHouse;
+import mt.spring.mos.server.entity.po.Resource;
+
+import java.util.List;
+
+/**
+ * 资源读取计划，缓存路径解析结果
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class ResourceReadPlan {
+	private Long bucketId;
+	private String pathname;
+	private Resource resource;
+	/**
+	 * 传统资源为空
+	 */
+	private FileHouse fileHouse;
+	private FileHouse thumbFileHouse;
+	/**
+	 * 存有该资源的客户端
+	 */
+	private List<Long> clientIds;
+	private List<Long> thumbClientIds;
+	
+	private long bucketVersion;
+	private long expireTime;
+}
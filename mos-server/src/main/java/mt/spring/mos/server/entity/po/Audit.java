@@ -2,7 +2,6 @@ package mt.spring.mos.server.entity.po;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
-import mt.common.annotation.ForeignKey;
 import mt.generator.mybatis.annotation.Index;
 import mt.generator.mybatis.annotation.Indexs;
 import mt.spring.mos.server.entity.BaseEntity;
@@ -11,6 +10,7 @@ import tk.mybatis.mapper.annotation.KeySql;
 import javax.persistence.Column;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 /**
  * @Author Martin
@@ -30,7 +30,9 @@ public class Audit extends BaseEntity {
 	@KeySql(useGeneratedKeys = true)
 	private Long id;
 	
-	@ForeignKey(tableEntity = Bucket.class, casecadeType = ForeignKey.CascadeType.ALL)
+	/**
+	 * 审计表按月分区，分区表不支持外键
+	 */
 	private Long bucketId;
 	
 	private Long userId;
@@ -51,8 +53,23 @@ public class Audit extends BaseEntity {
 	
 	private String ip;
 	
+	/**
+	 * 是否为长下载的检查点，检查点只累加汇总，不保存明细
+	 */
+	@Transient
+	private boolean checkpoint;
+	/**
+	 * 已通过检查点累加到汇总的字节数
+	 */
+	@Transient
+	private long checkpointBytes;
+	@Transient
+	private long checkpointTime;
+	@Transient
+	private boolean ended;
+	
 	public enum Action {
-		visit, upload, rename, mergeFile, initUpload, deleteResource, list, deleteDir, updateDir, addDir, updateResource, isExists
+		visit, upload, rename, mergeFile, initUpload, deleteResource, list, deleteDir, updateDir, addDir, updateResource, isExists, batchUpload
 	}
 	
 	public enum Type {
@@ -0,0 +1,47 @@
+package mt.spring.mos.server.entity.po;
+
+import lombok.Data;
+import mt.generator.mybatis.annotation.UniqueIndex;
+import tk.mybatis.mapper.annotation.KeySql;
+
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 审计汇总，按bucket、类型、小时/天累计流量和请求数，写入审计时同步更新
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+@Table(name = "mos_audit_rollup")
+@UniqueIndex(columns = {"bucketId", "type", "statUnit", "statTime"})
+public class AuditRollup implements Serializable {
+	private static final long serialVersionUID = 3183398513046359165L;
+	@Id
+	@KeySql(useGeneratedKeys = true)
+	private Long id;
+	
+	/**
+	 * 与审计明细一致，不建外键
+	 */
+	private Long bucketId;
+	
+	private Audit.Type type;
+	
+	private StatUnit statUnit;
+	/**
+	 * 统计周期的开始时间
+	 */
+	private Date statTime;
+	
+	private Long bytes;
+	
+	private Long requests;
+	
+	public enum StatUnit {
+		hour, day
+	}
+}
@@ -31,5 +31,9 @@ public class Bucket extends BaseEntity {
 	private Long userId;
 	
 	private Integer dataFragmentsAmount;
+	/**
+	 * 访问资源时是否重定向到客户端，不经服务端转发，需配置mos.server.visit-sign-key，未配置时仍由服务端转发
+	 */
+	private Boolean redirectVisit;
 	
 }
@@ -6,6 +6,7 @@ import mt.common.annotation.ForeignKey;
 import mt.generator.mybatis.annotation.UniqueIndex;
 import mt.spring.mos.base.utils.SizeUtils;
 import mt.spring.mos.server.entity.BaseEntity;
+import org.apache.commons.codec.digest.DigestUtils;
 import tk.mybatis.mapper.annotation.KeySql;
 
 import javax.persistence.Column;
@@ -13,6 +14,7 @@ import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import java.io.File;
+import java.util.Locale;
 
 /**
  * @Author Martin
@@ -46,6 +48,19 @@ public class Resource extends BaseEntity {
 	private Integer thumbFails;
 	private Long visits;
 	private Long lastModified;
+	/**
+	 * 全路径索引键，按bucket和pathname一次查询资源
+	 */
+	@Column(unique = true, length = 32)
+	private String pathnameHash;
+	
+	/**
+	 * 全路径索引键：md5(bucketId:lower(pathname))，pathname为所在文件夹的路径加文件名。
+	 * 转为小写与按文件夹和文件名查询时的不区分大小写的排序规则一致，只有大小写不同的pathname是同一个资源
+	 */
+	public static String getPathnameHash(Long bucketId, String path, String name) {
+		return DigestUtils.md5Hex(bucketId + ":" + (path + "/" + name).replace("//", "/").toLowerCase(Locale.ROOT));
+	}
 	
 	public Integer getThumbFails() {
 		return thumbFails == null ? 0 : thumbFails;
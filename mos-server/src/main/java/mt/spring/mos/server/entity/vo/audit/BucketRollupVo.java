@@ -0,0 +1,18 @@
+package mt.spring.mos.server.entity.vo.audit;
+
+import lombok.Data;
+import mt.spring.mos.server.entity.po.Audit;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class BucketRollupVo {
+	private Long bucketId;
+	private Audit.Type type;
+	private long dayBytes;
+	private long dayRequests;
+	private long bytes;
+	private long requests;
+}
@@ -0,0 +1,16 @@
+package mt.spring.mos.server.entity.vo.audit;
+
+import lombok.Data;
+import mt.spring.mos.server.entity.po.Audit;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Data
+public class ChartRollupVo {
+	private Audit.Type type;
+	private String x;
+	private long bytes;
+	private long requests;
+}
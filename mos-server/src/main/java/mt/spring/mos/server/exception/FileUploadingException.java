@@ -0,0 +1,13 @@
+package mt.spring.mos.server.exception;
+
+/**
+ * 相同的文件正在分片上传，一次请求上传时返回409，客户端改为分片上传续传
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+public class FileUploadingException extends IllegalStateException {
+	public FileUploadingException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,30 @@
+package mt.spring.mos.server.listener;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 合并后md5校验失败事件，合并事务回滚后清除上传中的文件和上传会话，客户端需要重新上传
+ *
+ * @Author Martin
+ * @Date 2021/1/24
+ */
+@Getter
+public class MergeVerifyFailedEvent extends ApplicationEvent {
+	private final long fileHouseId;
+	/**
+	 * 上传时使用的md5
+	 */
+	private final String md5;
+	/**
+	 * 上传时使用的文件大小
+	 */
+	private final long size;
+	
+	public MergeVerifyFailedEvent(Object source, long fileHouseId, String md5, long size) {
+		super(source);
+		this.fileHouseId = fileHouseId;
+		this.md5 = md5;
+		this.size = size;
+	}
+}
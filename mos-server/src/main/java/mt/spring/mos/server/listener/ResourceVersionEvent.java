@@ -0,0 +1,36 @@
+package mt.spring.mos.server.listener;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 资源版本变更事件，用于失效资源读取缓存
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Getter
+public class ResourceVersionEvent extends ApplicationEvent {
+	/**
+	 * 变更的bucket，bucket下所有资源失效
+	 */
+	private final Long bucketId;
+	/**
+	 * 变更的fileHouse，引用此fileHouse的资源失效
+	 */
+	private final Long fileHouseId;
+	
+	private ResourceVersionEvent(Object source, Long bucketId, Long fileHouseId) {
+		super(source);
+		this.bucketId = bucketId;
+		this.fileHouseId = fileHouseId;
+	}
+	
+	public static ResourceVersionEvent ofBucket(Object source, Long bucketId) {
+		return new ResourceVersionEvent(source, bucketId, null);
+	}
+	
+	public static ResourceVersionEvent ofFileHouse(Object source, Long fileHouseId) {
+		return new ResourceVersionEvent(source, null, fileHouseId);
+	}
+}
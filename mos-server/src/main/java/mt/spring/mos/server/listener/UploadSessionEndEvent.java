@@ -0,0 +1,30 @@
+package mt.spring.mos.server.listener;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 上传会话结束事件，合并事务提交后删除上传会话，合并失败回滚时会话保留，已上传的分片不用重传
+ *
+ * @Author Martin
+ * @Date 2021/1/23
+ */
+@Getter
+public class UploadSessionEndEvent extends ApplicationEvent {
+	private final long fileHouseId;
+	/**
+	 * 上传时使用的md5
+	 */
+	private final String md5;
+	/**
+	 * 上传时使用的文件大小
+	 */
+	private final long size;
+	
+	public UploadSessionEndEvent(Object source, long fileHouseId, String md5, long size) {
+		super(source);
+		this.fileHouseId = fileHouseId;
+		this.md5 = md5;
+		this.size = size;
+	}
+}
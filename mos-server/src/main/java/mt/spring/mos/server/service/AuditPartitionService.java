@@ -0,0 +1,86 @@
+package mt.spring.mos.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.server.dao.AuditMapper;
+import mt.spring.mos.server.dao.AuditRollupMapper;
+import mt.spring.mos.server.entity.MosServerProperties;
+import org.apache.commons.collections.CollectionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 审计分区维护：mos_audit按月range分区（分区名p+年月），
+ * 提前创建后续月份的分区，删除超过保留期的分区，过期明细只保留天汇总
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class AuditPartitionService {
+	private static final String FUTURE_PARTITION = "p_future";
+	private static final DateTimeFormatter PARTITION_FORMATTER = DateTimeFormatter.ofPattern("'p'yyyyMM");
+	@Autowired
+	private AuditMapper auditMapper;
+	@Autowired
+	private AuditRollupMapper auditRollupMapper;
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	
+	public void maintain() {
+		List<String> partitionNames = auditMapper.findPartitionNames();
+		if (CollectionUtils.isEmpty(partitionNames) || !partitionNames.contains(FUTURE_PARTITION)) {
+			log.warn("mos_audit未按月分区，跳过分区维护，请先执行mos_ddl-2.1.2-RELEASE.sql");
+			return;
+		}
+		LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+		createPartitions(partitionNames, thisMonth);
+		Integer retentionMonths = mosServerProperties.getAuditRetentionMonths();
+		if (retentionMonths != null && retentionMonths > 0) {
+			dropPartitions(partitionNames, thisMonth.minusMonths(retentionMonths));
+		}
+	}
+	
+	private void createPartitions(List<String> partitionNames, LocalDate thisMonth) {
+		for (int i = 0; i <= mosServerProperties.getAuditPartitionAheadMonths(); i++) {
+			LocalDate month = thisMonth.plusMonths(i);
+			String partitionName = month.format(PARTITION_FORMATTER);
+			if (partitionNames.contains(partitionName) || isCovered(partitionNames, partitionName)) {
+				continue;
+			}
+			String lessThan = month.plusMonths(1).toString();
+			log.info("创建审计分区：{}，结束日期：{}", partitionName, lessThan);
+			auditMapper.addPartition(partitionName, lessThan);
+			partitionNames.add(partitionNames.size() - 1, partitionName);
+		}
+	}
+	
+	/**
+	 * 已存在更晚的分区时，分区只能从p_future拆分，早于最后分区的月份已被覆盖
+	 */
+	private boolean isCovered(List<String> partitionNames, String partitionName) {
+		return partitionNames.stream()
+				.filter(name -> !FUTURE_PARTITION.equals(name))
+				.anyMatch(name -> name.compareTo(partitionName) > 0);
+	}
+	
+	private void dropPartitions(List<String> partitionNames, LocalDate before) {
+		String beforePartition = before.format(PARTITION_FORMATTER);
+		for (String partitionName : partitionNames) {
+			if (FUTURE_PARTITION.equals(partitionName) || partitionName.compareTo(beforePartition) >= 0) {
+				continue;
+			}
+			log.info("删除过期审计分区：{}", partitionName);
+			auditMapper.dropPartition(partitionName);
+		}
+		Date beforeDate = Date.from(before.atStartOfDay(ZoneId.systemDefault()).toInstant());
+		int deleted = auditRollupMapper.deleteHourRollupsBefore(beforeDate);
+		log.info("删除{}之前的小时汇总{}条", before, deleted);
+	}
+}
@@ -0,0 +1,119 @@
+package mt.spring.mos.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import mt.common.mybatis.mapper.BaseMapper;
+import mt.common.service.BaseServiceImpl;
+import mt.spring.mos.server.dao.AuditMapper;
+import mt.spring.mos.server.dao.AuditRollupMapper;
+import mt.spring.mos.server.entity.po.Audit;
+import mt.spring.mos.server.entity.po.AuditRollup;
+import mt.spring.mos.server.entity.vo.audit.BucketRollupVo;
+import mt.spring.mos.server.entity.vo.audit.ChartBy;
+import mt.spring.mos.server.entity.vo.audit.ChartRollupVo;
+import org.apache.commons.collections.CollectionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 审计汇总：写入审计时按小时和天累加，统计和图表只查汇总表
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class AuditRollupService extends BaseServiceImpl<AuditRollup> {
+	@Autowired
+	private AuditRollupMapper auditRollupMapper;
+	@Autowired
+	private AuditMapper auditMapper;
+	
+	@Override
+	public BaseMapper<AuditRollup> getBaseMapper() {
+		return auditRollupMapper;
+	}
+	
+	/**
+	 * 保存审计并更新汇总
+	 */
+	@Transactional
+	public void saveAudits(List<Audit> audits) {
+		List<Audit> records = audits.stream().filter(audit -> !audit.isCheckpoint()).collect(Collectors.toList());
+		if (!records.isEmpty()) {
+			auditMapper.insertBatch(records);
+		}
+		Map<String, AuditRollup> rollups = new LinkedHashMap<>();
+		for (Audit audit : audits) {
+			if (audit.getBucketId() == null || audit.getType() == null) {
+				continue;
+			}
+			Date createdDate = audit.getCreatedDate() != null ? audit.getCreatedDate() : new Date();
+			addRollup(rollups, audit, AuditRollup.StatUnit.hour, truncate(createdDate, Calendar.HOUR_OF_DAY));
+			addRollup(rollups, audit, AuditRollup.StatUnit.day, truncate(createdDate, Calendar.DAY_OF_MONTH));
+		}
+		if (!rollups.isEmpty()) {
+			auditRollupMapper.addRollups(rollups.values());
+		}
+	}
+	
+	private void addRollup(Map<String, AuditRollup> rollups, Audit audit, AuditRollup.StatUnit statUnit, Date statTime) {
+		String key = audit.getBucketId() + ":" + audit.getType() + ":" + statUnit + ":" + statTime.getTime();
+		AuditRollup rollup = rollups.computeIfAbsent(key, k -> {
+			AuditRollup auditRollup = new AuditRollup();
+			auditRollup.setBucketId(audit.getBucketId());
+			auditRollup.setType(audit.getType());
+			auditRollup.setStatUnit(statUnit);
+			auditRollup.setStatTime(statTime);
+			auditRollup.setBytes(0L);
+			auditRollup.setRequests(0L);
+			return auditRollup;
+		});
+		//检查点已累加的流量不再重复累加，检查点本身不计请求数
+		long bytes = audit.getBytes() != null ? audit.getBytes() - audit.getCheckpointBytes() : 0;
+		rollup.setBytes(rollup.getBytes() + Math.max(bytes, 0));
+		rollup.setRequests(rollup.getRequests() + (audit.isCheckpoint() ? 0 : 1));
+	}
+	
+	private Date truncate(Date date, int field) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		if (field == Calendar.DAY_OF_MONTH) {
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+		}
+		return calendar.getTime();
+	}
+	
+	/**
+	 * 按图表粒度查询汇总。统计范围按汇总粒度对齐：按小时统计时精确到小时，其余精确到天，
+	 * startDate所在的整小时（或整天）会完整计入，不按时分秒截取
+	 *
+	 * @param startDate 开始时间
+	 * @param endDate   结束时间，开始于此时间之前的汇总都计入
+	 */
+	public List<ChartRollupVo> findChartList(Long bucketId, String startDate, String endDate, ChartBy by) {
+		return auditRollupMapper.findChartList(bucketId, startDate, endDate, by);
+	}
+	
+	/**
+	 * 按bucket汇总统计
+	 *
+	 * @param bucketIds bucket
+	 * @param dayStart  当天开始日期，dayBytes和dayRequests只统计此日期之后，精确到天
+	 * @param startDate 开始日期，精确到天，所在的整天完整计入
+	 * @param type      类型，为空时统计全部
+	 * @return 每个bucket每种类型一条
+	 */
+	public List<BucketRollupVo> findBucketRollupList(List<Long> bucketIds, String dayStart, String startDate, Audit.Type type) {
+		if (CollectionUtils.isEmpty(bucketIds)) {
+			return new ArrayList<>();
+		}
+		return auditRollupMapper.findBucketRollupList(bucketIds, dayStart, startDate, type);
+	}
+}
@@ -7,7 +7,9 @@ import mt.spring.mos.base.utils.SizeUtils;
 import mt.spring.mos.server.config.MosUserContext;
 import mt.spring.mos.server.config.aop.MosContext;
 import mt.spring.mos.server.controller.ReadableOutputStream;
+import mt.spring.mos.server.utils.HttpClientServletUtils;
 import mt.spring.mos.server.dao.AuditMapper;
+import mt.spring.mos.server.entity.MosServerProperties;
 import mt.spring.mos.server.entity.po.Audit;
 import mt.spring.mos.server.entity.po.Bucket;
 import mt.spring.mos.server.entity.vo.BucketVo;
@@ -35,9 +37,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static mt.spring.mos.base.utils.IOUtils.MB;
@@ -61,12 +62,16 @@ public class AuditService extends BaseServiceImpl<Audit> {
 	@Autowired
 	private MosUserContext mosUserContext;
 	@Autowired
-	@Lazy
-	private ResourceService resourceService;
-	private final ExecutorService executorService = Executors.newFixedThreadPool(5);
+	private ResourceVisitService resourceVisitService;
+	@Autowired
+	private AuditWriter auditWriter;
+	@Autowired
+	private AuditRollupService auditRollupService;
+	@Autowired
+	private MosServerProperties mosServerProperties;
 	
 	public void auditResourceVisits(Long resourceId) {
-		executorService.submit(() -> resourceService.addVisits(resourceId));
+		resourceVisitService.addVisit(resourceId);
 	}
 	
 	public List<FlowStatisticVo> findFlowStatisticFrom(Long userId, Audit.Type type, String startDate) {
@@ -74,12 +79,14 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		if (CollectionUtils.isEmpty(bucketList)) {
 			return null;
 		}
+		Map<Long, BucketRollupVo> rollups = findBucketRollups(bucketList, startDate, startDate, type);
 		return bucketList.stream().map(bucketVo -> {
 			FlowStatisticVo flowStatisticVo = new FlowStatisticVo();
 			flowStatisticVo.setBucketName(bucketVo.getBucketName());
 			flowStatisticVo.setStartDate(startDate);
 			flowStatisticVo.setType(type);
-			long bytes = auditMapper.findTotalFlowFromDate(bucketVo.getId(), type, startDate);
+			BucketRollupVo rollup = rollups.get(bucketVo.getId());
+			long bytes = rollup != null ? rollup.getBytes() : 0;
 			flowStatisticVo.setReadableFlow(SizeUtils.getReadableSize(bytes));
 			return flowStatisticVo;
 		}).collect(Collectors.toList());
@@ -90,17 +97,24 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		if (CollectionUtils.isEmpty(bucketList)) {
 			return null;
 		}
+		Map<Long, BucketRollupVo> rollups = findBucketRollups(bucketList, startDate, startDate, type);
 		return bucketList.stream().map(bucketVo -> {
 			RequestStatisticVo requestStatisticVo = new RequestStatisticVo();
 			requestStatisticVo.setBucketName(bucketVo.getBucketName());
 			requestStatisticVo.setStartDate(startDate);
 			requestStatisticVo.setType(type);
-			long requests = auditMapper.findTotalRequestFromDate(bucketVo.getId(), type, startDate);
-			requestStatisticVo.setRequests(requests);
+			BucketRollupVo rollup = rollups.get(bucketVo.getId());
+			requestStatisticVo.setRequests(rollup != null ? rollup.getRequests() : 0);
 			return requestStatisticVo;
 		}).collect(Collectors.toList());
 	}
 	
+	private Map<Long, BucketRollupVo> findBucketRollups(List<BucketVo> bucketList, String dayStart, String startDate, Audit.Type type) {
+		List<Long> bucketIds = bucketList.stream().map(BucketVo::getId).collect(Collectors.toList());
+		return auditRollupService.findBucketRollupList(bucketIds, dayStart, startDate, type).stream()
+				.collect(Collectors.toMap(BucketRollupVo::getBucketId, Function.identity()));
+	}
+	
 	public List<String> createXList(ChartBy by, String startDate, String endDate) {
 		try {
 			Date start = DateUtils.parse(startDate);
@@ -157,23 +171,31 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		}
 	}
 	
-	private ChartVo findChartVoByTime(List<ChartVo> list, String time) {
-		return list.stream().filter(f -> f.getX().equals(time)).findFirst().orElse(new ChartVo(time, BigDecimal.ZERO));
+	private Map<String, ChartRollupVo> toChartMap(List<ChartRollupVo> chartList, Audit.Type type) {
+		return chartList.stream()
+				.filter(chartRollupVo -> chartRollupVo.getType() == type)
+				.collect(Collectors.toMap(ChartRollupVo::getX, Function.identity()));
+	}
+	
+	private ChartRollupVo findChartVoByTime(Map<String, ChartRollupVo> chartRollups, String time) {
+		ChartRollupVo chartRollupVo = chartRollups.get(time);
+		return chartRollupVo != null ? chartRollupVo : new ChartRollupVo();
 	}
 	
 	public List<ChartFlowData> findChartFlowList(Bucket bucket, String startDate, @Nullable String endDate, ChartBy by) {
 		if (endDate == null) {
 			endDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
 		}
-		List<ChartVo> readBytes = auditMapper.findChartFlowDataList(bucket.getId(), startDate, endDate, Audit.Type.READ, by);
-		List<ChartVo> writeBytes = auditMapper.findChartFlowDataList(bucket.getId(), startDate, endDate, Audit.Type.WRITE, by);
+		List<ChartRollupVo> chartList = auditRollupService.findChartList(bucket.getId(), startDate, endDate, by);
+		Map<String, ChartRollupVo> readBytes = toChartMap(chartList, Audit.Type.READ);
+		Map<String, ChartRollupVo> writeBytes = toChartMap(chartList, Audit.Type.WRITE);
 		List<String> list = createXList(by, startDate, endDate);
 		return list.stream().map(time -> {
 			ChartFlowData chartFlowData = new ChartFlowData();
 			chartFlowData.setTime(time);
-			double readMb = findChartVoByTime(readBytes, time).getY().divide(BigDecimal.valueOf(MB), 1, RoundingMode.HALF_UP).doubleValue();
+			double readMb = BigDecimal.valueOf(findChartVoByTime(readBytes, time).getBytes()).divide(BigDecimal.valueOf(MB), 1, RoundingMode.HALF_UP).doubleValue();
 			chartFlowData.setReadMb(readMb);
-			double writeMb = findChartVoByTime(writeBytes, time).getY().divide(BigDecimal.valueOf(MB), 1, RoundingMode.HALF_UP).doubleValue();
+			double writeMb = BigDecimal.valueOf(findChartVoByTime(writeBytes, time).getBytes()).divide(BigDecimal.valueOf(MB), 1, RoundingMode.HALF_UP).doubleValue();
 			chartFlowData.setWriteMb(writeMb);
 			return chartFlowData;
 		}).collect(Collectors.toList());
@@ -183,14 +205,15 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		if (endDate == null) {
 			endDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
 		}
-		List<ChartVo> readRequests = auditMapper.findChartRequestDataList(bucket.getId(), startDate, endDate, Audit.Type.READ, by);
-		List<ChartVo> writeRequests = auditMapper.findChartRequestDataList(bucket.getId(), startDate, endDate, Audit.Type.WRITE, by);
+		List<ChartRollupVo> chartList = auditRollupService.findChartList(bucket.getId(), startDate, endDate, by);
+		Map<String, ChartRollupVo> readRequests = toChartMap(chartList, Audit.Type.READ);
+		Map<String, ChartRollupVo> writeRequests = toChartMap(chartList, Audit.Type.WRITE);
 		List<String> list = createXList(by, startDate, endDate);
 		return list.stream().map(time -> {
 			ChartRequestData data = new ChartRequestData();
 			data.setTime(time);
-			data.setReadRequests(findChartVoByTime(readRequests, time).getY().longValue());
-			data.setWriteRequests(findChartVoByTime(writeRequests, time).getY().longValue());
+			data.setReadRequests(findChartVoByTime(readRequests, time).getRequests());
+			data.setWriteRequests(findChartVoByTime(writeRequests, time).getRequests());
 			return data;
 		}).collect(Collectors.toList());
 	}
@@ -200,80 +223,61 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		LocalDate now = LocalDate.now();
 		String thisDay = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
 		String thisMonth = now.format(DateTimeFormatter.ofPattern("yyyy-MM-01"));
+		List<Long> bucketIds = bucketList.stream().map(BucketVo::getId).collect(Collectors.toList());
+		List<BucketRollupVo> rollups = auditRollupService.findBucketRollupList(bucketIds, thisDay, thisMonth, null);
 		return bucketList.stream().map(bucketVo -> {
 			StatisticInfo statisticInfo = new StatisticInfo();
 			statisticInfo.setBucket(bucketVo);
-			
-			Long bucketId = bucketVo.getId();
-			statisticInfo.setThisDayReadBytes(auditMapper.findTotalFlowFromDate(bucketId, Audit.Type.READ, thisDay));
-			statisticInfo.setThisDayReadRequests(auditMapper.findTotalRequestFromDate(bucketId, Audit.Type.READ, thisDay));
-			statisticInfo.setThisDayWriteBytes(auditMapper.findTotalFlowFromDate(bucketId, Audit.Type.WRITE, thisDay));
-			statisticInfo.setThisDayWriteRequests(auditMapper.findTotalRequestFromDate(bucketId, Audit.Type.WRITE, thisDay));
-			
-			statisticInfo.setThisMonthReadBytes(auditMapper.findTotalFlowFromDate(bucketId, Audit.Type.READ, thisMonth));
-			statisticInfo.setThisMonthReadRequests(auditMapper.findTotalRequestFromDate(bucketId, Audit.Type.READ, thisMonth));
-			statisticInfo.setThisMonthWriteBytes(auditMapper.findTotalFlowFromDate(bucketId, Audit.Type.WRITE, thisMonth));
-			statisticInfo.setThisMonthWriteRequests(auditMapper.findTotalRequestFromDate(bucketId, Audit.Type.WRITE, thisMonth));
+			for (BucketRollupVo rollup : rollups) {
+				if (!bucketVo.getId().equals(rollup.getBucketId())) {
+					continue;
+				}
+				if (rollup.getType() == Audit.Type.READ) {
+					statisticInfo.setThisDayReadBytes(rollup.getDayBytes());
+					statisticInfo.setThisDayReadRequests(rollup.getDayRequests());
+					statisticInfo.setThisMonthReadBytes(rollup.getBytes());
+					statisticInfo.setThisMonthReadRequests(rollup.getRequests());
+				} else if (rollup.getType() == Audit.Type.WRITE) {
+					statisticInfo.setThisDayWriteBytes(rollup.getDayBytes());
+					statisticInfo.setThisDayWriteRequests(rollup.getDayRequests());
+					statisticInfo.setThisMonthWriteBytes(rollup.getBytes());
+					statisticInfo.setThisMonthWriteRequests(rollup.getRequests());
+				}
+			}
 			return statisticInfo;
 		}).collect(Collectors.toList());
 	}
 	
-	class SaveAuditTask implements Callable<Audit> {
-		public SaveAuditTask(Audit audit) {
-			this.audit = audit;
-		}
-		
-		private final Audit audit;
-		
-		@Override
-		public Audit call() {
-			save(audit);
-			return audit;
-		}
-	}
-	
-	class UpdateAuditTask implements Runnable {
-		public UpdateAuditTask(Audit audit) {
-			this.audit = audit;
-		}
-		
-		private final Audit audit;
-		
-		@Override
-		public void run() {
-			updateById(audit);
-		}
-	}
-	
 	public void doAudit(MosContext mosContext, Audit.Type type, Audit.Action action, String remark) {
 		Audit audit = createAudit(mosContext.getBucketId(), mosContext.getCurrentUserId(), mosContext.getOpenId(), mosContext.getPathname(), type, action, 0, remark);
-		executorService.submit(new SaveAuditTask(audit));
+		auditWriter.write(audit);
 	}
 	
 	public void doAudit(MosContext mosContext, Audit.Type type, Audit.Action action) {
 		Audit audit = createAudit(mosContext.getBucketId(), mosContext.getCurrentUserId(), mosContext.getOpenId(), mosContext.getPathname(), type, action, 0, null);
-		executorService.submit(new SaveAuditTask(audit));
+		auditWriter.write(audit);
 	}
 	
 	public void doAudit(MosContext mosContext, Audit.Type type, Audit.Action action, String remark, long bytes) {
 		Audit audit = createAudit(mosContext.getBucketId(), mosContext.getCurrentUserId(), mosContext.getOpenId(), mosContext.getPathname(), type, action, bytes, remark);
-		executorService.submit(new SaveAuditTask(audit));
+		auditWriter.write(audit);
 	}
 	
 	public void doAudit(Long bucketId, String target, Audit.Type type, Audit.Action action, String remark, long bytes) {
 		Audit audit = createAudit(bucketId, target, type, action, bytes, remark);
-		executorService.submit(new SaveAuditTask(audit));
+		auditWriter.write(audit);
 	}
 	
 	public void doAudit(Long bucketId, String target, Audit.Type type, Audit.Action action) {
 		Audit audit = createAudit(bucketId, target, type, action, 0, null);
-		executorService.submit(new SaveAuditTask(audit));
+		auditWriter.write(audit);
 	}
 	
+	/**
+	 * 开始审计，只在内存中记录，endAudit时写入
+	 */
 	public Audit startAudit(MosContext mosContext, Audit.Type type, Audit.Action action, String remark) {
-		Audit audit = createAudit(mosContext.getBucketId(), mosContext.getPathname(), type, action, 0, remark);
-		save(audit);
-		return audit;
+		return createAudit(mosContext.getBucketId(), mosContext.getPathname(), type, action, 0, remark);
 	}
 	
 	private Audit createAudit(Long bucketId, String target, Audit.Type type, Audit.Action action, long bytes, String remark) {
@@ -291,6 +295,9 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		audit.setBytes(bytes);
 		audit.setAction(action);
 		audit.setRemark(remark);
+		Date now = new Date();
+		audit.setCreatedDate(now);
+		audit.setUpdatedDate(now);
 		audit.setCreatedBy(mosUserContext.getCurrentUserName());
 		audit.setUpdatedBy(mosUserContext.getCurrentUserName());
 		ServletRequestAttributes requestAttributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
@@ -325,7 +332,7 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		return new ReadableOutputStream(outputStream, new ReadableOutputStream.ReadEvent() {
 			@Override
 			public void onFlush(long readed) {
-				endAudit(audit, readed);
+				checkpointAudit(audit, readed);
 			}
 			
 			@Override
@@ -340,9 +347,71 @@ public class AuditService extends BaseServiceImpl<Audit> {
 		});
 	}
 	
+	public HttpClientServletUtils.ForwardCallback createAuditCallback(Audit audit) {
+		return new HttpClientServletUtils.ForwardCallback() {
+			@Override
+			public void onComplete(long bytes) {
+				endAudit(audit, bytes);
+			}
+			
+			@Override
+			public void onError(long bytes, Throwable e) {
+				endAudit(audit, bytes);
+			}
+			
+			@Override
+			public void onProgress(long bytes) {
+				checkpointAudit(audit, bytes);
+			}
+		};
+	}
+	
+	/**
+	 * 记录下载进度，只在内存中累加，超过检查点间隔时把新增流量写入汇总
+	 */
+	public void checkpointAudit(Audit audit, long bytes) {
+		Integer checkpointSeconds = mosServerProperties.getAuditCheckpointSeconds();
+		if (checkpointSeconds == null || checkpointSeconds <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (audit) {
+			if (audit.isEnded()) {
+				return;
+			}
+			if (audit.getCheckpointTime() == 0) {
+				audit.setCheckpointTime(now);
+				return;
+			}
+			if (now - audit.getCheckpointTime() < checkpointSeconds * 1000L || bytes <= audit.getCheckpointBytes()) {
+				return;
+			}
+			Audit checkpoint = new Audit();
+			checkpoint.setCheckpoint(true);
+			checkpoint.setBucketId(audit.getBucketId());
+			checkpoint.setType(audit.getType());
+			checkpoint.setBytes(bytes - audit.getCheckpointBytes());
+			checkpoint.setCreatedDate(new Date(now));
+			if (auditWriter.offer(checkpoint)) {
+				audit.setCheckpointBytes(bytes);
+				audit.setCheckpointTime(now);
+			}
+		}
+	}
+	
+	/**
+	 * 结束审计，只保存一次
+	 */
 	public void endAudit(Audit audit, long bytes) {
+		synchronized (audit) {
+			if (audit.isEnded()) {
+				return;
+			}
+			audit.setEnded(true);
+		}
 		audit.setBytes(bytes);
-		executorService.submit(new UpdateAuditTask(audit));
+		audit.setUpdatedDate(new Date());
+		auditWriter.write(audit);
 	}
 	
 }
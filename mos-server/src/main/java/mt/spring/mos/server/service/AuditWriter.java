@@ -0,0 +1,137 @@
+package mt.spring.mos.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.po.Audit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 审计日志异步写入：审计先放入有界队列，由单个写线程按条数或时间批量插入，同时更新汇总
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Component
+@Slf4j
+public class AuditWriter {
+	@Autowired
+	private AuditRollupService auditRollupService;
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	
+	private BlockingQueue<Audit> queue;
+	private Thread writerThread;
+	private volatile boolean running;
+	private final AtomicLong dropped = new AtomicLong();
+	
+	@PostConstruct
+	public void start() {
+		queue = new ArrayBlockingQueue<>(mosServerProperties.getAuditQueueSize());
+		running = true;
+		writerThread = new Thread(this::writeLoop, "audit-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+	
+	/**
+	 * 提交审计，队列满时按mos.server.audit-queue-full-policy处理
+	 */
+	public void write(Audit audit) {
+		if (!running) {
+			insert(audit);
+			return;
+		}
+		if (queue.offer(audit)) {
+			return;
+		}
+		if (mosServerProperties.getAuditQueueFullPolicy() == MosServerProperties.AuditQueueFullPolicy.BLOCK) {
+			try {
+				queue.put(audit);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		long count = dropped.incrementAndGet();
+		if (count == 1 || count % 1000 == 0) {
+			log.warn("审计队列已满，已丢弃{}条审计", count);
+		}
+	}
+	
+	/**
+	 * 尝试提交审计，队列满时直接返回false，不阻塞
+	 */
+	public boolean offer(Audit audit) {
+		if (!running) {
+			insert(audit);
+			return true;
+		}
+		return queue.offer(audit);
+	}
+	
+	private void writeLoop() {
+		int batchSize = mosServerProperties.getAuditBatchSize();
+		long flushIntervalMills = mosServerProperties.getAuditFlushIntervalMills();
+		List<Audit> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Audit audit = queue.poll(flushIntervalMills, TimeUnit.MILLISECONDS);
+				if (audit == null) {
+					continue;
+				}
+				batch.add(audit);
+				long deadline = System.currentTimeMillis() + flushIntervalMills;
+				while (batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.size() >= batchSize || wait <= 0 || !running) {
+						break;
+					}
+					audit = queue.poll(wait, TimeUnit.MILLISECONDS);
+					if (audit == null) {
+						break;
+					}
+					batch.add(audit);
+				}
+			} catch (InterruptedException e) {
+				log.warn("审计写线程被中断");
+			}
+			flush(batch);
+		}
+	}
+	
+	private void flush(List<Audit> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			auditRollupService.saveAudits(batch);
+		} catch (RuntimeException e) {
+			log.error("保存审计失败，丢弃" + batch.size() + "条：" + e.getMessage(), e);
+		}
+		batch.clear();
+	}
+	
+	private void insert(Audit audit) {
+		List<Audit> batch = new ArrayList<>(1);
+		batch.add(audit);
+		flush(batch);
+	}
+	
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		log.info("保存未写入的审计...");
+		running = false;
+		writerThread.join(TimeUnit.SECONDS.toMillis(30));
+	}
+}
@@ -0,0 +1,275 @@
+package mt.spring.mos.server.service;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.base.stream.BoundedInputStream;
+import mt.spring.mos.base.utils.Assert;
+import mt.spring.mos.base.utils.BufferPool;
+import mt.spring.mos.base.utils.MosFileEncodeUtils;
+import mt.spring.mos.server.config.aop.MosContext;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.dto.BatchUploadItem;
+import mt.spring.mos.server.entity.dto.BatchUploadResult;
+import mt.spring.mos.server.entity.po.Audit;
+import mt.spring.mos.server.entity.po.Bucket;
+import mt.spring.mos.server.entity.po.Client;
+import mt.spring.mos.server.entity.po.FileHouse;
+import mt.spring.mos.server.exception.FileUploadingException;
+import mt.spring.mos.server.service.clientapi.ClientApiFactory;
+import mt.spring.mos.server.service.clientapi.IClientApi;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 批量上传小文件：一个请求连续传输多个文件，按md5和大小去重，新文件直接写入存储服务器的最终位置，
+ * 不经过初始化、分片和合并。查找和新增文件在文件锁内完成，资源记录在一个事务中批量插入，资源被拒绝的新文件随即清除
+ * <p>
+ * 请求体由连续的帧组成，每帧为一行JSON文件头（{@link BatchUploadItem}），后跟sizeByte字节的文件内容
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class BatchUploadService {
+	/**
+	 * 文件头的最大长度
+	 */
+	private static final int MAX_HEAD_LENGTH = 8 * 1024;
+	@Autowired
+	private FileHouseService fileHouseService;
+	@Autowired
+	private ClientService clientService;
+	@Autowired
+	private ClientApiFactory clientApiFactory;
+	@Autowired
+	private ResourceService resourceService;
+	@Autowired
+	private AuditService auditService;
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	
+	private interface HeadReader {
+		/**
+		 * @return 没有更多文件时返回null
+		 */
+		BatchUploadItem next() throws IOException;
+	}
+	
+	/**
+	 * 批量上传
+	 *
+	 * @param bucket      bucket
+	 * @param path        签名的路径，文件必须在此路径下，为空不限制
+	 * @param inputStream 请求体
+	 * @return 上传结果
+	 */
+	public BatchUploadResult upload(Bucket bucket, @Nullable String path, InputStream inputStream) throws Exception {
+		try (InputStream in = new BufferedInputStream(inputStream, BufferPool.COPY_BUFFER_SIZE)) {
+			return upload(bucket, getPrefix(path), in, () -> readHead(in), Audit.Action.batchUpload);
+		}
+	}
+	
+	/**
+	 * 单个小文件一次请求上传，请求体为文件内容
+	 *
+	 * @param bucket      bucket
+	 * @param item        文件信息，sizeByte为请求体长度
+	 * @param inputStream 请求体
+	 * @throws FileUploadingException 相同的文件正在分片上传，响应409，客户端改为分片上传
+	 */
+	public void upload(Bucket bucket, BatchUploadItem item, InputStream inputStream) throws Exception {
+		if (!item.isCover()) {
+			Assert.state(resourceService.findResourceByPathnameAndBucketId(item.getPathname(), bucket.getId()) == null, "已存在相同的pathname");
+		}
+		Iterator<BatchUploadItem> iterator = Collections.singletonList(item).iterator();
+		BatchUploadResult result;
+		try (InputStream in = inputStream) {
+			result = upload(bucket, "/", in, () -> iterator.hasNext() ? iterator.next() : null, Audit.Action.upload);
+		}
+		if (result.getUploading().contains(item.getPathname())) {
+			throw new FileUploadingException(result.getFailed().get(item.getPathname()));
+		}
+		Assert.state(result.getFailed().isEmpty(), () -> "上传失败：" + result.getFailed().values().iterator().next());
+	}
+	
+	private BatchUploadResult upload(Bucket bucket, String prefix, InputStream in, HeadReader headReader, Audit.Action action) throws Exception {
+		BatchUploadResult result = new BatchUploadResult();
+		List<BatchUploadItem> items = new ArrayList<>();
+		Map<String, FileHouse> fileHouses = new HashMap<>();
+		List<FileHouse> newFileHouses = new ArrayList<>();
+		Client client = null;
+		long bytes = 0;
+		try {
+			BatchUploadItem item;
+			while ((item = headReader.next()) != null) {
+				String pathname = item.getPathname();
+				Assert.state(StringUtils.isNotBlank(item.getMd5()) && item.getSizeByte() != null && item.getSizeByte() >= 0, "文件头不完整：" + pathname);
+				long size = item.getSizeByte();
+				String md5 = item.getMd5().toLowerCase();
+				item.setMd5(md5);
+				if (StringUtils.isBlank(pathname) || pathname.contains("..") || !("/" + StringUtils.removeStart(pathname.replace("\\", "/"), "/")).startsWith(prefix)) {
+					IOUtils.skipFully(in, size);
+					result.getFailed().put(pathname, "pathname不在签名的路径下");
+					continue;
+				}
+				if (size > mosServerProperties.getBatchUploadMaxFileSize()) {
+					IOUtils.skipFully(in, size);
+					result.getFailed().put(pathname, "文件超过批量上传的大小限制，请使用分片上传");
+					continue;
+				}
+				String key = md5 + ":" + size;
+				FileHouse fileHouse = fileHouses.get(key);
+				if (fileHouse == null) {
+					if (client == null) {
+						client = clientService.findRandomAvalibleClientForUpload(mosServerProperties.getBatchUploadMaxFileSize());
+						Assert.notNull(client, "无可用的存储服务器");
+					}
+					int newCount = newFileHouses.size();
+					fileHouse = findOrWrite(client, item, in, newFileHouses);
+					if (fileHouse == null) {
+						result.getFailed().put(pathname, "文件md5校验失败");
+						continue;
+					}
+					if (newFileHouses.size() > newCount) {
+						bytes += size;
+						result.setUploaded(result.getUploaded() + 1);
+					} else if (fileHouse.getFileStatus() != FileHouse.FileStatus.OK) {
+						result.getFailed().put(pathname, "相同的文件正在上传中，请使用分片上传");
+						result.getUploading().add(pathname);
+						continue;
+					} else {
+						result.setDeduped(result.getDeduped() + 1);
+					}
+				} else {
+					IOUtils.skipFully(in, size);
+					result.setDeduped(result.getDeduped() + 1);
+				}
+				fileHouses.put(key, fileHouse);
+				item.setFileHouse(fileHouse);
+				items.add(item);
+			}
+			Set<Long> usedFileHouseIds = resourceService.addResources(bucket, items, result.getFailed());
+			//资源都被拒绝的新文件没有引用，直接清除
+			release(newFileHouses.stream().filter(fileHouse -> !usedFileHouseIds.contains(fileHouse.getId())).collect(Collectors.toList()));
+		} catch (Exception e) {
+			//资源未保存，清除已新增的文件
+			release(newFileHouses);
+			throw e;
+		}
+		auditService.doAudit(MosContext.getContext(), Audit.Type.WRITE, action, "文件数：" + items.size(), bytes);
+		log.info("上传完成，写入{}个，去重{}个，失败{}个", result.getUploaded(), result.getDeduped(), result.getFailed().size());
+		return result;
+	}
+	
+	private String getPrefix(@Nullable String path) {
+		if (StringUtils.isBlank(path)) {
+			return "/";
+		}
+		path = "/" + StringUtils.removeStart(path.replace("\\", "/"), "/");
+		return path.endsWith("/") ? path : path + "/";
+	}
+	
+	/**
+	 * 读取一行文件头
+	 *
+	 * @return 请求体已读完时返回null
+	 */
+	private BatchUploadItem readHead(InputStream in) throws IOException {
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				Assert.state(head.size() == 0, "文件头不完整");
+				return null;
+			}
+			Assert.state(head.size() < MAX_HEAD_LENGTH, "文件头过长");
+			head.write(b);
+		}
+		return JSONObject.parseObject(new String(head.toByteArray(), StandardCharsets.UTF_8), BatchUploadItem.class);
+	}
+	
+	/**
+	 * 在文件锁内查找相同的文件，不存在时写入存储服务器并新增，并发上传相同的文件时只写入一次
+	 *
+	 * @param newFileHouses 新增的文件加入此列表
+	 * @return 已存在或新增的文件，md5校验失败时返回null
+	 */
+	private FileHouse findOrWrite(Client client, BatchUploadItem item, InputStream in, List<FileHouse> newFileHouses) {
+		return fileHouseService.doWithLock(item.getMd5(), LockService.LockType.WRITE, 10, () -> {
+			try {
+				FileHouse fileHouse = fileHouseService.findByMd5AndSize(item.getMd5(), item.getSizeByte());
+				if (fileHouse != null) {
+					IOUtils.skipFully(in, item.getSizeByte());
+					return fileHouse;
+				}
+				fileHouse = write(client, item, in);
+				if (fileHouse != null) {
+					fileHouse = fileHouseService.addFileHouseIfNotExists(fileHouse, client);
+					newFileHouses.add(fileHouse);
+				}
+				return fileHouse;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+	
+	/**
+	 * 清除没有资源引用的新文件，已被其它上传引用的不清除
+	 */
+	private void release(List<FileHouse> fileHouses) {
+		for (FileHouse fileHouse : fileHouses) {
+			try {
+				fileHouseService.clearFileHouse(fileHouse, false);
+			} catch (RuntimeException e) {
+				log.warn("清除文件{}失败：{}", fileHouse.getPathname(), e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * 文件内容加上加密头直接写入存储服务器的最终位置，同时校验md5
+	 *
+	 * @return md5校验失败时返回null
+	 */
+	private FileHouse write(Client client, BatchUploadItem item, InputStream in) throws Exception {
+		long size = item.getSizeByte();
+		FileHouse fileHouse = new FileHouse();
+		fileHouse.setMd5(item.getMd5());
+		fileHouse.setSizeByte(size);
+		fileHouse.setChunks(1);
+		fileHouse.setEncode(true);
+		fileHouse.setFileStatus(FileHouse.FileStatus.OK);
+		fileHouse.setPathname("/" + new SimpleDateFormat("yyyyMM").format(new Date()) + "/" + item.getMd5());
+		byte[] fileHead = MosFileEncodeUtils.getFileHead(fileHouse.getPathname());
+		DigestInputStream digestInputStream = new DigestInputStream(new BoundedInputStream(new CloseShieldInputStream(in), size), DigestUtils.getMd5Digest());
+		CountingInputStream countingInputStream = new CountingInputStream(digestInputStream);
+		IClientApi clientApi = clientApiFactory.getClientApi(client);
+		clientApi.uploadStream(new SequenceInputStream(new ByteArrayInputStream(fileHead), countingInputStream), fileHouse.getPathname(), fileHead.length + size);
+		Assert.state(countingInputStream.getByteCount() == size, "文件内容不完整：" + item.getPathname());
+		String md5 = Hex.encodeHexString(digestInputStream.getMessageDigest().digest());
+		if (!md5.equals(item.getMd5())) {
+			log.warn("{}的md5校验失败，文件头：{}，实际：{}", item.getPathname(), item.getMd5(), md5);
+			clientApi.deleteFile(fileHouse.getPathname());
+			return null;
+		}
+		return fileHouse;
+	}
+}
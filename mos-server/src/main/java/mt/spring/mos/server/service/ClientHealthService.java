@@ -0,0 +1,274 @@
+package mt.spring.mos.server.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.server.controller.discovery.BeatEvent;
+import mt.spring.mos.server.controller.discovery.ClientDownEvent;
+import mt.spring.mos.server.controller.discovery.RegistEvent;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.po.Client;
+import mt.spring.mos.server.service.clientapi.ClientApiFactory;
+import mt.spring.mos.server.utils.HttpClientServletUtils;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.http.HttpHost;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 客户端健康监测：后台定时探测客户端，记录心跳、失败次数和熔断状态，
+ * isAlive直接从内存判断，不在请求链路上调用客户端；
+ * 状态为UP的客户端随定时探测从数据库刷新，访问资源时从内存选择客户端，不查库；
+ * 调用客户端接口或转发请求失败时同样计入失败次数，不必等到心跳超时
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class ClientHealthService implements InitializingBean, DisposableBean {
+	@Autowired
+	@Lazy
+	private ClientService clientService;
+	@Autowired
+	private ClientApiFactory clientApiFactory;
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	
+	private final Map<Long, ClientHealth> healthMap = new ConcurrentHashMap<>();
+	/**
+	 * 状态为UP的客户端，为null时下次使用前从数据库加载
+	 */
+	private volatile Map<Long, Client> upClients;
+	
+	@Override
+	public void afterPropertiesSet() {
+		HttpClientServletUtils.setForwardFailureListener(this::recordFailure);
+	}
+	
+	@Override
+	public void destroy() {
+		HttpClientServletUtils.setForwardFailureListener(null);
+	}
+	
+	public enum CircuitState {
+		/**
+		 * 正常
+		 */
+		CLOSED,
+		/**
+		 * 熔断中
+		 */
+		OPEN,
+		/**
+		 * 熔断时间已过，等待探测结果
+		 */
+		HALF_OPEN
+	}
+	
+	@Data
+	public static class ClientHealth {
+		private Long clientId;
+		private String name;
+		private volatile long lastBeatTime;
+		private volatile long lastCheckTime;
+		private volatile long lastSuccessTime;
+		private volatile int failures;
+		private volatile CircuitState state = CircuitState.CLOSED;
+		private volatile long openTime;
+	}
+	
+	private ClientHealth getHealth(Client client) {
+		return healthMap.computeIfAbsent(client.getId(), id -> {
+			ClientHealth clientHealth = new ClientHealth();
+			clientHealth.setClientId(id);
+			clientHealth.setName(client.getName());
+			return clientHealth;
+		});
+	}
+	
+	/**
+	 * 判断客户端是否可用，只读内存状态
+	 */
+	public boolean isAlive(Client client) {
+		if (client == null || client.getId() == null) {
+			return false;
+		}
+		ClientHealth clientHealth = healthMap.get(client.getId());
+		if (clientHealth == null || clientHealth.getLastCheckTime() == 0) {
+			//还未探测过，同步探测一次
+			return check(client);
+		}
+		if (clientHealth.getState() != CircuitState.CLOSED) {
+			return false;
+		}
+		long lastBeatTime = clientHealth.getLastBeatTime();
+		if (client.getLastBeatTime() != null) {
+			lastBeatTime = Math.max(lastBeatTime, client.getLastBeatTime().getTime());
+		}
+		long beatTimeout = mosServerProperties.getClientBeatTimeoutSeconds() * 1000L;
+		if (lastBeatTime > 0 && System.currentTimeMillis() - lastBeatTime > beatTimeout) {
+			//心跳超时，以最近一次探测成功为准
+			return System.currentTimeMillis() - clientHealth.getLastSuccessTime() <= beatTimeout;
+		}
+		return true;
+	}
+	
+	/**
+	 * 立即探测客户端
+	 */
+	public boolean check(Client client) {
+		ClientHealth clientHealth = getHealth(client);
+		boolean alive = clientApiFactory.getClientApi(client).isAlive();
+		long now = System.currentTimeMillis();
+		clientHealth.setLastCheckTime(now);
+		if (alive) {
+			recordSuccess(clientHealth, now);
+		} else {
+			recordFailure(clientHealth, now);
+		}
+		return alive;
+	}
+	
+	private void recordSuccess(ClientHealth clientHealth, long now) {
+		if (clientHealth.getState() != CircuitState.CLOSED) {
+			log.info("客户端{}恢复可用", clientHealth.getName());
+		}
+		clientHealth.setFailures(0);
+		clientHealth.setLastSuccessTime(now);
+		clientHealth.setState(CircuitState.CLOSED);
+	}
+	
+	private void recordFailure(ClientHealth clientHealth, long now) {
+		clientHealth.setFailures(clientHealth.getFailures() + 1);
+		if (clientHealth.getState() == CircuitState.HALF_OPEN || clientHealth.getFailures() >= mosServerProperties.getClientFailureThreshold()) {
+			if (clientHealth.getState() != CircuitState.OPEN) {
+				log.warn("客户端{}连续{}次探测失败，熔断", clientHealth.getName(), clientHealth.getFailures());
+			}
+			clientHealth.setState(CircuitState.OPEN);
+			clientHealth.setOpenTime(now);
+		}
+	}
+	
+	/**
+	 * 调用客户端失败时记录，达到阈值后熔断
+	 */
+	public void recordFailure(Client client) {
+		if (client == null || client.getId() == null) {
+			return;
+		}
+		log.warn("调用客户端{}失败", client.getName());
+		recordFailure(getHealth(client), System.currentTimeMillis());
+	}
+	
+	/**
+	 * 转发到客户端的请求失败时，按地址找到客户端记录失败
+	 */
+	private void recordFailure(HttpHost httpHost, Exception e) {
+		Map<Long, Client> clients = upClients;
+		if (clients == null) {
+			return;
+		}
+		for (Client client : clients.values()) {
+			if (httpHost.getHostName().equals(client.getIp()) && client.getPort() != null && httpHost.getPort() == client.getPort()) {
+				log.warn("转发到客户端{}失败：{}", client.getName(), e.getMessage());
+				recordFailure(getHealth(client), System.currentTimeMillis());
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * 从状态为UP的客户端中查找可用的客户端
+	 *
+	 * @param clientIds 客户端id
+	 * @return 可用的客户端
+	 */
+	public List<Client> findAvailableClients(List<Long> clientIds) {
+		Map<Long, Client> clients = upClients;
+		if (clients == null) {
+			clients = refreshUpClients();
+		}
+		List<Client> availableClients = new ArrayList<>();
+		for (Long clientId : clientIds) {
+			Client client = clients.get(clientId);
+			if (client != null && isAlive(client)) {
+				availableClients.add(client);
+			}
+		}
+		return availableClients;
+	}
+	
+	private Map<Long, Client> refreshUpClients() {
+		List<Client> clients = clientService.findAvaliableClients();
+		Map<Long, Client> clientMap = clients == null ? new ConcurrentHashMap<>() : clients.stream().collect(Collectors.toConcurrentMap(Client::getId, Function.identity()));
+		upClients = clientMap;
+		return clientMap;
+	}
+	
+	/**
+	 * 客户端状态变更后作废内存中的客户端，下次使用前重新加载
+	 */
+	public void invalidateUpClients() {
+		upClients = null;
+	}
+	
+	@Scheduled(fixedDelayString = "${mos.server.client-health-check-interval-mills:5000}")
+	public void checkAll() {
+		List<Client> clients = new ArrayList<>(refreshUpClients().values());
+		if (CollectionUtils.isEmpty(clients)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long openMills = mosServerProperties.getClientCircuitOpenSeconds() * 1000L;
+		clients.parallelStream().forEach(client -> {
+			ClientHealth clientHealth = getHealth(client);
+			if (clientHealth.getState() == CircuitState.OPEN) {
+				if (now - clientHealth.getOpenTime() < openMills) {
+					return;
+				}
+				clientHealth.setState(CircuitState.HALF_OPEN);
+			}
+			try {
+				check(client);
+			} catch (RuntimeException e) {
+				log.error("探测客户端{}异常：{}", client.getName(), e.getMessage());
+			}
+		});
+	}
+	
+	@EventListener
+	public void onBeat(BeatEvent beatEvent) {
+		getHealth(beatEvent.getClient()).setLastBeatTime(System.currentTimeMillis());
+	}
+	
+	@EventListener
+	public void onRegist(RegistEvent registEvent) {
+		Client client = registEvent.getClient();
+		ClientHealth clientHealth = getHealth(client);
+		clientHealth.setLastBeatTime(System.currentTimeMillis());
+		//重新注册，重置熔断状态
+		recordSuccess(clientHealth, System.currentTimeMillis());
+		invalidateUpClients();
+	}
+	
+	@EventListener
+	public void onDown(ClientDownEvent clientDownEvent) {
+		Client client = clientDownEvent.getClient();
+		ClientHealth clientHealth = getHealth(client);
+		clientHealth.setState(CircuitState.OPEN);
+		clientHealth.setOpenTime(System.currentTimeMillis());
+		invalidateUpClients();
+	}
+}
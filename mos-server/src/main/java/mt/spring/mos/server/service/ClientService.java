@@ -9,7 +9,6 @@ import mt.spring.mos.server.entity.po.Client;
 import mt.spring.mos.server.entity.po.FileHouseRelaClient;
 import mt.spring.mos.server.entity.po.RelaClientResource;
 import mt.spring.mos.server.entity.po.Resource;
-import mt.spring.mos.server.service.clientapi.ClientApiFactory;
 import mt.spring.mos.server.service.strategy.StrategyFactory;
 import mt.utils.common.Assert;
 import org.jetbrains.annotations.NotNull;
@@ -20,7 +19,6 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -48,7 +46,7 @@ public class ClientService extends BaseServiceImpl<Client> {
 	@Autowired
 	private LockService lockService;
 	@Autowired
-	private ClientApiFactory clientApiFactory;
+	private ClientHealthService clientHealthService;
 	
 	@Override
 	public BaseMapper<Client> getBaseMapper() {
@@ -104,11 +102,14 @@ public class ClientService extends BaseServiceImpl<Client> {
 		}
 	}
 	
-	private List<Client> findAvaliableClientByIds(List<Long> clientIds) {
-		List<Filter> filters = new ArrayList<>();
-		filters.add(new Filter("id", Filter.Operator.in, clientIds));
-		filters.add(new Filter("status", Filter.Operator.eq, Client.ClientStatus.UP));
-		return findByFilters(filters);
+	/**
+	 * 从内存中的可用客户端选择，访问资源时不查库
+	 */
+	public Client findRandomAvalibleClientForVisitByIds(List<Long> clientIds) {
+		Assert.notEmpty(clientIds, "不存在此资源");
+		List<Client> avaliableClients = clientHealthService.findAvailableClients(clientIds);
+		Assert.notEmpty(avaliableClients, "无可用的资源服务器");
+		return strategyFactory.getDefaultClientStrategy().getClient(0, avaliableClients);
 	}
 	
 	public Client findOneByName(String name) {
@@ -116,7 +117,7 @@ public class ClientService extends BaseServiceImpl<Client> {
 	}
 	
 	public boolean isAlive(Client client) {
-		return clientApiFactory.getClientApi(client).isAlive();
+		return clientHealthService.isAlive(client);
 	}
 	
 	@Transactional
@@ -127,6 +128,7 @@ public class ClientService extends BaseServiceImpl<Client> {
 		lockService.doWithLock(key, LockService.LockType.WRITE, 2, () -> {
 			client.setStatus(Client.ClientStatus.KICKED);
 			updateByIdSelective(client);
+			clientHealthService.invalidateUpClients();
 			return null;
 		});
 	}
@@ -138,8 +140,9 @@ public class ClientService extends BaseServiceImpl<Client> {
 		String key = "client:" + client.getName();
 		lockService.doWithLock(key, LockService.LockType.WRITE, 2, () -> {
 			Assert.state(client.getStatus() == Client.ClientStatus.KICKED, "服务器" + id + "未被剔除，不能进行恢复");
-			client.setStatus(isAlive(client) ? Client.ClientStatus.UP : Client.ClientStatus.DOWN);
+			client.setStatus(clientHealthService.check(client) ? Client.ClientStatus.UP : Client.ClientStatus.DOWN);
 			updateByIdSelective(client);
+			clientHealthService.invalidateUpClients();
 			return null;
 		});
 	}
@@ -7,17 +7,19 @@ import mt.spring.mos.server.dao.DirMapper;
 import mt.spring.mos.server.entity.dto.DirUpdateDto;
 import mt.spring.mos.server.entity.po.Audit;
 import mt.spring.mos.server.entity.po.Dir;
+import mt.spring.mos.server.listener.ResourceVersionEvent;
 import mt.utils.common.Assert;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * @Author Martin
@@ -30,12 +32,12 @@ public class DirService extends BaseServiceImpl<Dir> {
 	@Autowired
 	private BucketService bucketService;
 	@Autowired
-	private LockService lockService;
-	@Autowired
 	private AuditService auditService;
 	@Autowired
 	@Lazy
 	private ResourceService resourceService;
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
 	
 	@Override
 	public BaseMapper<Dir> getBaseMapper() {
@@ -82,37 +84,64 @@ public class DirService extends BaseServiceImpl<Dir> {
 		return parentPath;
 	}
 	
-	@Transactional
-	public Dir addDir(String path, Long bucketId) {
+	private String normalizePath(String path) {
 		if (!"/".equals(path) && path.endsWith("/")) {
 			path = path.substring(0, path.length() - 1);
 		}
 		if (!path.startsWith("/")) {
 			path = "/" + path;
 		}
-		String finalPath = path;
-		
-		return lockService.doWithLock("addDir-" + path + "-" + bucketId, LockService.LockType.WRITE, 5, () -> {
-			Dir findDir = findOneByPathAndBucketId(finalPath, bucketId);
-			if (findDir != null) {
-				return findDir;
-			}
-			Dir parentDir = null;
-			if (!"/".equalsIgnoreCase(finalPath)) {
-				String parentPath = getParentPath(finalPath);
-				parentDir = addDir(parentPath, bucketId);
-			}
-			
-			Dir dir = new Dir();
-			dir.setPath(finalPath);
-			dir.setBucketId(bucketId);
-			if (parentDir != null) {
-				dir.setParentId(parentDir.getId());
+		return path;
+	}
+	
+	/**
+	 * @return 从根目录到path的所有路径
+	 */
+	private List<String> getAncestorPaths(String path) {
+		LinkedList<String> paths = new LinkedList<>();
+		paths.addFirst(path);
+		while (!"/".equals(path)) {
+			path = normalizePath(getParentPath(path));
+			paths.addFirst(path);
+		}
+		return paths;
+	}
+	
+	/**
+	 * 新增文件夹，同时创建不存在的上级文件夹：一次查询已存在的路径，缺少的路径从上级到下级逐个
+	 * insert ... on duplicate key update取得id，写入时已知上级id，不需要再读取和更新parentId。
+	 * 并发创建由(path, bucket_id)唯一索引保证，各事务按相同的路径顺序加锁，不会互相死锁；
+	 * 其他事务刚提交的路径由唯一索引返回已有的id，不依赖外层事务的快照读
+	 */
+	@Transactional
+	public Dir addDir(String path, Long bucketId) {
+		path = normalizePath(path);
+		List<String> paths = getAncestorPaths(path);
+		List<Filter> filters = new ArrayList<>();
+		filters.add(new Filter("bucketId", Filter.Operator.eq, bucketId));
+		filters.add(new Filter("path", Filter.Operator.in, paths));
+		Map<String, Dir> dirs = findByFilters(filters).stream().collect(Collectors.toMap(Dir::getPath, dir -> dir));
+		if (dirs.containsKey(path)) {
+			return dirs.get(path);
+		}
+		Date now = new Date();
+		Dir parentDir = null;
+		for (String ancestorPath : paths) {
+			Dir dir = dirs.get(ancestorPath);
+			if (dir == null) {
+				dir = new Dir();
+				dir.setPath(ancestorPath);
+				dir.setBucketId(bucketId);
+				dir.setParentId(parentDir != null ? parentDir.getId() : null);
+				dir.setCreatedDate(now);
+				dir.setUpdatedDate(now);
+				dirMapper.insertOrGetId(dir);
+				Assert.notNull(dir.getId(), "新增文件夹失败：" + ancestorPath);
+				auditService.doAudit(bucketId, ancestorPath, Audit.Type.WRITE, Audit.Action.addDir);
 			}
-			auditService.doAudit(bucketId, finalPath, Audit.Type.WRITE, Audit.Action.addDir);
-			save(dir);
-			return dir;
-		});
+			parentDir = dir;
+		}
+		return parentDir;
 	}
 	
 	@Override
@@ -136,6 +165,8 @@ public class DirService extends BaseServiceImpl<Dir> {
 		currentDir.setParentId(parentDir.getId());
 		currentDir.setPath(newPath);
 		updateById(currentDir);
+		resourceService.updatePathnameHash(currentDir.getId());
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucketId));
 	}
 	
 	private void updateParentDir(Dir dir, Dir parentDir) {
@@ -146,6 +177,7 @@ public class DirService extends BaseServiceImpl<Dir> {
 		dir.setParentId(parentDir.getId());
 		dir.setPath(desPath);
 		updateById(dir);
+		resourceService.updatePathnameHash(dir.getId());
 		List<Dir> children = findList("parentId", dir.getId());
 		if (CollectionUtils.isNotEmpty(children)) {
 			for (Dir child : children) {
@@ -171,5 +203,6 @@ public class DirService extends BaseServiceImpl<Dir> {
 		resourceService.changeDir(srcId, desId);
 		//删除原文件夹
 		deleteById(srcDir);
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucketId));
 	}
 }
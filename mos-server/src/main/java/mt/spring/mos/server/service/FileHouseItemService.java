@@ -5,13 +5,18 @@ import mt.common.mybatis.mapper.BaseMapper;
 import mt.common.service.BaseServiceImpl;
 import mt.common.tkmapper.Filter;
 import mt.spring.mos.base.utils.Assert;
+import mt.spring.mos.base.utils.UploadTokenUtils;
 import mt.spring.mos.server.config.aop.MosContext;
 import mt.spring.mos.server.dao.FileHouseItemMapper;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.dto.InitUploadDto;
 import mt.spring.mos.server.entity.po.*;
 import mt.spring.mos.server.service.clientapi.ClientApiFactory;
 import mt.spring.mos.server.service.clientapi.IClientApi;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
@@ -22,7 +27,6 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @Author Martin
@@ -38,12 +42,14 @@ public class FileHouseItemService extends BaseServiceImpl<FileHouseItem> {
 	@Autowired
 	private FileHouseService fileHouseService;
 	@Autowired
-	private RedissonClient redissonClient;
+	private UploadSessionService uploadSessionService;
 	@Autowired
 	@Lazy
 	private FileHouseRelaClientService fileHouseRelaClientService;
 	@Autowired
 	private ClientApiFactory clientApiFactory;
+	@Autowired
+	private MosServerProperties mosServerProperties;
 	
 	@Override
 	public BaseMapper<FileHouseItem> getBaseMapper() {
@@ -64,46 +70,173 @@ public class FileHouseItemService extends BaseServiceImpl<FileHouseItem> {
 	@Autowired
 	private AuditService auditService;
 	
-	@Transactional
-	public void upload(long fileHouseId, String chunkMd5, int chunkIndex, InputStream inputStream) throws IOException {
+	/**
+	 * 上传分片，分片流直接转发到存储服务器，分片登记在上传会话中
+	 *
+	 * @param partSize 分片大小，不为空时存储服务器按偏移写入预分配文件，合并时无需再拷贝
+	 * @param length   分片长度，-1表示未知
+	 */
+	public void upload(long fileHouseId, String chunkMd5, int chunkIndex, @Nullable Long partSize, InputStream inputStream, long length) throws IOException {
 		Assert.notNull(chunkMd5, "chunkMd5不能为空");
 		Assert.notNull(inputStream, "上传文件不能为空");
-		String lockKey = "upload-" + fileHouseId + "-" + chunkIndex;
-		RLock lock = null;
 		try {
-			lock = redissonClient.getLock(lockKey);
-			lock.lock(30, TimeUnit.MINUTES);
-			FileHouse fileHouse = fileHouseService.findById(fileHouseId);
-			Assert.notNull(fileHouse, "fileHouse不存在:" + fileHouseId);
-			if (fileHouse.getFileStatus() == FileHouse.FileStatus.OK) {
+			UploadSessionService.UploadSession uploadSession = getOrStartSession(fileHouseId, chunkIndex);
+			if (uploadSession == null) {
 				log.info("fileHouse已完成：{}，跳过分片上传", fileHouseId);
 				return;
 			}
-			FileHouseItem fileHouseItem = findByMd5AndSize(fileHouseId, chunkMd5);
-			if (fileHouseItem != null) {
+			if (uploadSession.hasUploaded(chunkIndex, chunkMd5)) {
 				log.info("分片已存在，跳过分片上传：{},{}-{}", chunkMd5, fileHouseId, chunkIndex);
 				return;
 			}
-			List<FileHouseRelaClient> fileHouseRelaClients = fileHouseRelaClientService.findListByFileHouseId(fileHouseId);
-			Assert.state(fileHouseRelaClients.size() == 1, "资源服务器异常，当前资源：" + fileHouseRelaClients.size());
-			Client client = clientService.findById(fileHouseRelaClients.get(0).getClientId());
+			Client client = clientService.findById(uploadSession.getClientId());
 			Assert.state(clientService.isAlive(client), "存储服务器不可用");
 			
-			int chunkSize = inputStream.available();
+			CountingInputStream countingInputStream = new CountingInputStream(inputStream);
 			IClientApi clientApi = clientApiFactory.getClientApi(client);
-			clientApi.upload(inputStream, getItemName(fileHouse, chunkIndex));
+			if (partSize != null && partSize > 0 && uploadSession.getPathname() != null) {
+				clientApi.uploadPart(countingInputStream, uploadSession.getChunkTempPath(), uploadSession.getPathname(), chunkIndex, partSize, uploadSession.getSizeByte(), length);
+			} else {
+				clientApi.uploadStream(countingInputStream, uploadSession.getItemName(chunkIndex), length);
+			}
+			long chunkSize = countingInputStream.getByteCount();
 			auditService.doAudit(MosContext.getContext(), Audit.Type.WRITE, Audit.Action.upload, "分片" + chunkIndex, chunkSize);
-			fileHouseItem = new FileHouseItem();
-			fileHouseItem.setChunkIndex(chunkIndex);
-			fileHouseItem.setFileHouseId(fileHouse.getId());
-			fileHouseItem.setSizeByte((long) chunkSize);
-			fileHouseItem.setMd5(chunkMd5);
-			save(fileHouseItem);
+			uploadSessionService.addChunk(fileHouseId, chunkIndex, chunkMd5);
 		} finally {
-			if (lock != null) {
-				lock.unlock();
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+	
+	/**
+	 * 获取上传会话，会话不存在时按数据库开始会话，升级前已上传的分片一并登记
+	 *
+	 * @return 文件已完成时返回null
+	 */
+	private UploadSessionService.UploadSession getOrStartSession(long fileHouseId, Integer chunkIndex) {
+		UploadSessionService.UploadSession uploadSession = uploadSessionService.getSession(fileHouseId, chunkIndex);
+		if (uploadSession != null) {
+			return uploadSession;
+		}
+		FileHouse fileHouse = fileHouseService.findById(fileHouseId);
+		Assert.notNull(fileHouse, "fileHouse不存在:" + fileHouseId);
+		if (fileHouse.getFileStatus() == FileHouse.FileStatus.OK) {
+			return null;
+		}
+		FileHouseRelaClient fileHouseRelaClient = fileHouseRelaClientService.findUniqueFileHouseRelaClient(fileHouseId);
+		uploadSessionService.start(fileHouse, fileHouseRelaClient.getClientId());
+		List<FileHouseItem> items = findList("fileHouseId", fileHouseId);
+		if (items != null) {
+			for (FileHouseItem item : items) {
+				uploadSessionService.addChunk(fileHouseId, item.getChunkIndex(), item.getMd5());
 			}
 		}
+		return uploadSessionService.getSession(fileHouseId, chunkIndex);
+	}
+	
+	/**
+	 * 查找上传中的文件id，优先从上传会话中查找
+	 */
+	public long findUploadingFileHouseId(String totalMd5, Long totalSize) {
+		Assert.notNull(totalMd5, "totalMd5不能为空");
+		Assert.notNull(totalSize, "totalSize不能为空");
+		Long fileHouseId = uploadSessionService.findFileHouseId(totalMd5, totalSize);
+		if (fileHouseId != null) {
+			return fileHouseId;
+		}
+		FileHouse fileHouse = fileHouseService.findByMd5AndSize(totalMd5, totalSize);
+		Assert.notNull(fileHouse, "fileHouse不存在");
+		return fileHouse.getId();
+	}
+	
+	/**
+	 * 已上传的分片序号
+	 */
+	public List<Integer> findChunkIndexs(long fileHouseId) {
+		getOrStartSession(fileHouseId, null);
+		return uploadSessionService.findChunkIndexs(fileHouseId);
+	}
+	
+	/**
+	 * 已上传的分片数
+	 */
+	public int countChunks(long fileHouseId) {
+		if (getOrStartSession(fileHouseId, null) == null) {
+			return countItems(fileHouseId);
+		}
+		return uploadSessionService.countChunks(fileHouseId);
+	}
+	
+	/**
+	 * 存储服务器变更后作废已上传的分片
+	 */
+	@Transactional
+	public void resetChunks(Long fileHouseId) {
+		deleteByFileHouseId(fileHouseId);
+		uploadSessionService.reset(fileHouseId);
+	}
+	
+	/**
+	 * 签发分片直传凭证，未开启直传、未配置签名秘钥或存储服务器不可用时不签发，仍通过服务端上传
+	 */
+	public void signDirectUpload(InitUploadDto initUploadDto, FileHouse fileHouse, Long bucketId) {
+		String visitSignKey = mosServerProperties.getVisitSignKey();
+		if (!Boolean.TRUE.equals(mosServerProperties.getDirectUpload()) || StringUtils.isBlank(visitSignKey)) {
+			return;
+		}
+		Client client = fileHouseRelaClientService.findUniqueClient(fileHouse.getId());
+		if (client == null || !clientService.isAlive(client)) {
+			return;
+		}
+		UploadTokenUtils.UploadToken uploadToken = new UploadTokenUtils.UploadToken();
+		uploadToken.setFileHouseId(fileHouse.getId());
+		uploadToken.setBucketId(bucketId);
+		uploadToken.setClientName(client.getName());
+		uploadToken.setChunkTempPath(fileHouse.getChunkTempPath());
+		uploadToken.setPathname(fileHouse.getPathname());
+		uploadToken.setTotalSize(fileHouse.getSizeByte());
+		uploadToken.setExpires(System.currentTimeMillis() + mosServerProperties.getUploadTokenExpireSeconds() * 1000L);
+		initUploadDto.setUploadUrl(client.getUrl() + "/client/upload/chunk");
+		initUploadDto.setUploadToken(UploadTokenUtils.createToken(visitSignKey, uploadToken));
+	}
+	
+	/**
+	 * 存储服务器接收直传分片后回报，登记分片
+	 */
+	public void reportUploaded(UploadTokenUtils.UploadToken uploadToken, int chunkIndex, String chunkMd5, long chunkSize) {
+		Assert.notNull(chunkMd5, "chunkMd5不能为空");
+		Long fileHouseId = uploadToken.getFileHouseId();
+		UploadSessionService.UploadSession uploadSession = getOrStartSession(fileHouseId, chunkIndex);
+		if (uploadSession == null) {
+			log.info("fileHouse已完成：{}，忽略分片回报", fileHouseId);
+			return;
+		}
+		Client client = clientService.findById(uploadSession.getClientId());
+		Assert.state(client != null && client.getName().equals(uploadToken.getClientName()), "存储服务器已变更，分片无效");
+		if (uploadSession.hasUploaded(chunkIndex, chunkMd5)) {
+			log.info("分片已存在，忽略分片回报：{},{}-{}", chunkMd5, fileHouseId, chunkIndex);
+			return;
+		}
+		auditService.doAudit(uploadToken.getBucketId(), uploadToken.getChunkTempPath(), Audit.Type.WRITE, Audit.Action.upload, "分片" + chunkIndex, chunkSize);
+		uploadSessionService.addChunk(fileHouseId, chunkIndex, chunkMd5);
+	}
+	
+	/**
+	 * 等待直传分片回报完成，分片登记时通知等待方，最多等待upload-report-wait-mills
+	 *
+	 * @throws IllegalStateException 超时后分片仍未上传完整，客户端可稍后重新合并
+	 */
+	public void waitForChunks(long fileHouseId, int chunks) {
+		if (countChunks(fileHouseId) >= chunks) {
+			return;
+		}
+		boolean completed;
+		try {
+			completed = uploadSessionService.awaitChunks(fileHouseId, chunks, mosServerProperties.getUploadReportWaitMills());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("等待分片回报被中断", e);
+		}
+		Assert.state(completed, "分片还未上传完整，请稍后重新合并，分片数：" + chunks + "，已上传分片数：" + uploadSessionService.countChunks(fileHouseId));
 	}
 	
 	public int countItems(long fileHouseId) {
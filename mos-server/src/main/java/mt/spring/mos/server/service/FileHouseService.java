@@ -5,6 +5,7 @@ import mt.common.mybatis.mapper.BaseMapper;
 import mt.common.service.BaseServiceImpl;
 import mt.common.tkmapper.Filter;
 import mt.spring.mos.base.utils.Assert;
+import mt.spring.mos.base.utils.VisitSignUtils;
 import mt.spring.mos.server.dao.FileHouseMapper;
 import mt.spring.mos.server.dao.RelaClientResourceMapper;
 import mt.spring.mos.server.entity.MosServerProperties;
@@ -12,10 +13,15 @@ import mt.spring.mos.server.entity.dto.MergeFileResult;
 import mt.spring.mos.server.entity.po.*;
 import mt.spring.mos.server.entity.vo.BackVo;
 import mt.spring.mos.server.listener.ClientWorkLogEvent;
+import mt.spring.mos.server.listener.MergeVerifyFailedEvent;
+import mt.spring.mos.server.listener.ResourceVersionEvent;
+import mt.spring.mos.server.listener.UploadSessionEndEvent;
 import mt.spring.mos.server.service.clientapi.ClientApiFactory;
 import mt.spring.mos.server.service.clientapi.IClientApi;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationEventPublisher;
@@ -24,7 +30,10 @@ import org.springframework.http.HttpMethod;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.InputStream;
@@ -145,6 +154,7 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 				});
 			}
 			deleteById(lockedFileHouse);
+			applicationEventPublisher.publishEvent(ResourceVersionEvent.ofFileHouse(this, lockedFileHouse.getId()));
 			return null;
 		});
 	}
@@ -174,16 +184,26 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 		void callback(FileHouse fileHouse);
 	}
 	
+	/**
+	 * 合并文件
+	 *
+	 * @param fileHouse         上传中的文件
+	 * @param updateMd5         是否用合并后计算的md5更新文件md5，相同文件已存在时直接使用已存在的文件
+	 * @param expectMd5         客户端计算的文件md5，不为空时校验合并结果，为空不校验
+	 * @param mergeDoneCallback 合并完成回调
+	 */
 	@Transactional
 	@Async
-	public Future<FileHouse> mergeFiles(FileHouse fileHouse, boolean updateMd5, MergeDoneCallback mergeDoneCallback) {
+	public Future<FileHouse> mergeFiles(FileHouse fileHouse, boolean updateMd5, @Nullable String expectMd5, MergeDoneCallback mergeDoneCallback) {
 		Assert.notNull(fileHouse, "fileHouse不能为空");
 		String pathname = fileHouse.getPathname();
+		String uploadMd5 = fileHouse.getMd5();
+		long uploadSize = fileHouse.getSizeByte();
 		log.info("开始合并文件：{}", pathname);
 		return doWithLock(fileHouse.getMd5(), LockService.LockType.WRITE, 10, () -> {
 			try {
 				Assert.state(fileHouse.getFileStatus() == FileHouse.FileStatus.UPLOADING, "文件" + pathname + "已合并完成，无须再次合并");
-				int chunks = fileHouseItemService.countItems(fileHouse.getId());
+				int chunks = fileHouseItemService.countChunks(fileHouse.getId());
 				Assert.state(fileHouse.getChunks() == chunks, "文件" + pathname + "还未上传完整，分片数：" + fileHouse.getChunks() + "，已上传分片数：" + chunks);
 				List<FileHouseRelaClient> fileHouseRelaClients = fileHouseRelaClientService.findListByFileHouseId(fileHouse.getId());
 				Assert.state(fileHouseRelaClients.size() == 1, "资源服务器异常，当前资源：" + fileHouseRelaClients.size());
@@ -198,11 +218,18 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 				fileHouse.setEncode(true);
 				fileHouse.setSizeByte(length);
 				fileHouseItemService.deleteByFilters(Collections.singletonList(new Filter("fileHouseId", eq, fileHouse.getId())));
+				//会话在合并提交后才删除，校验失败回滚时已上传的分片不用重传
+				applicationEventPublisher.publishEvent(new UploadSessionEndEvent(this, fileHouse.getId(), uploadMd5, uploadSize));
 				if (updateMd5) {
 					if (totalMd5 == null) {
 						totalMd5 = clientApi.md5(pathname);
 					}
 					log.info("更新的md5：{}，length:{}", totalMd5, length);
+					if (expectMd5 != null && !expectMd5.equalsIgnoreCase(totalMd5)) {
+						//抛出异常会回滚本事务，清除放在回滚之后
+						applicationEventPublisher.publishEvent(new MergeVerifyFailedEvent(this, fileHouse.getId(), uploadMd5, uploadSize));
+						throw new IllegalStateException("文件" + pathname + "校验失败，客户端md5：" + expectMd5 + "，合并后md5：" + totalMd5);
+					}
 					FileHouse findFileHouse = findByMd5AndSize(totalMd5, length);
 					if (findFileHouse != null && !findFileHouse.getId().equals(fileHouse.getId()) && findFileHouse.getFileStatus() == FileHouse.FileStatus.OK) {
 						log.info("已存在相同的文件，删除此文件");
@@ -229,6 +256,18 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 		});
 	}
 	
+	/**
+	 * 合并校验失败回滚后，在新事务中清除上传中的文件，合并出的内容不可信，需要重新上传
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_ROLLBACK)
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void onMergeVerifyFailed(MergeVerifyFailedEvent event) {
+		FileHouse fileHouse = findById(event.getFileHouseId());
+		if (fileHouse != null && fileHouse.getFileStatus() == FileHouse.FileStatus.UPLOADING) {
+			clearFileHouse(fileHouse, false);
+		}
+	}
+	
 	public List<FileHouse> findNotUsedFileHouseList(int beforeDays) {
 		return fileHouseMapper.findNotUsedFileHouseList(beforeDays + " 0:0:0");
 	}
@@ -281,6 +320,7 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 		}
 		resource.setFileHouseId(fileHouse.getId());
 		resourceService.updateByIdSelective(resource);
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
 		
 		for (RelaClientResource relaClientResource : list) {
 			relaClientResourceMapper.deleteByPrimaryKey(relaClientResource);
@@ -372,6 +412,9 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 	public void copyResource(Client srcClient, Client desClient, FileHouse fileHouse) {
 		String pathname = fileHouse.getPathname();
 		String srcUrl = srcClient.getUrl() + "/mos" + pathname;
+		if (StringUtils.isNotBlank(mosServerProperties.getVisitSignKey())) {
+			srcUrl += "?" + VisitSignUtils.getSignQuery(mosServerProperties.getVisitSignKey(), pathname, mosServerProperties.getVisitSignExpireSeconds());
+		}
 		log.info("开始备份{}，从{}备份到{}", pathname, srcClient.getUrl(), desClient.getUrl());
 		IClientApi clientApi = clientApiFactory.getClientApi(desClient);
 		backRestTemplate.execute(srcUrl, HttpMethod.GET, null, clientHttpResponse -> {
@@ -381,6 +424,7 @@ public class FileHouseService extends BaseServiceImpl<FileHouse> {
 			fileHouseRelaClient.setFileHouseId(fileHouse.getId());
 			fileHouseRelaClient.setClientId(desClient.getId());
 			fileHouseRelaClientService.save(fileHouseRelaClient);
+			applicationEventPublisher.publishEvent(ResourceVersionEvent.ofFileHouse(this, fileHouse.getId()));
 			log.info("备份{}完成!", pathname);
 			return null;
 		});
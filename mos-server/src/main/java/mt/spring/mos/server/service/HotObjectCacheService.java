@@ -0,0 +1,155 @@
+package mt.spring.mos.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.base.utils.BufferPool;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.po.FileHouse;
+import mt.spring.mos.server.listener.ResourceVersionEvent;
+import mt.spring.mos.server.utils.HttpClientServletUtils;
+import mt.utils.common.Assert;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 热点小文件内存缓存（堆外），按fileHouseId缓存文件内容，
+ * 同一文件并发未命中时只有一个请求去客户端读取
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class HotObjectCacheService {
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	@Autowired
+	private CloseableHttpClient httpClient;
+	
+	private final LinkedHashMap<Long, ByteBuffer> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Long, CompletableFuture<ByteBuffer>> loadings = new ConcurrentHashMap<>();
+	private long currentBytes;
+	
+	/**
+	 * 是否可以走缓存：开启了缓存、文件足够小且不是分段请求
+	 */
+	public boolean isCacheable(FileHouse fileHouse, HttpServletRequest request) {
+		return fileHouse != null
+				&& fileHouse.getSizeByte() != null
+				&& mosServerProperties.getHotObjectCacheBytes() > 0
+				&& fileHouse.getSizeByte() <= mosServerProperties.getHotObjectMaxBytes()
+				&& request.getHeader("Range") == null;
+	}
+	
+	/**
+	 * 获取文件内容
+	 *
+	 * @param fileHouse   文件
+	 * @param urlSupplier 未命中时获取客户端地址
+	 * @return 只读的文件内容
+	 */
+	public ByteBuffer get(FileHouse fileHouse, Supplier<String> urlSupplier) throws IOException {
+		Long fileHouseId = fileHouse.getId();
+		ByteBuffer byteBuffer;
+		synchronized (cache) {
+			byteBuffer = cache.get(fileHouseId);
+		}
+		if (byteBuffer != null) {
+			return byteBuffer.duplicate();
+		}
+		CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+		CompletableFuture<ByteBuffer> loading = loadings.putIfAbsent(fileHouseId, future);
+		if (loading != null) {
+			//其它请求正在加载，等待结果
+			try {
+				return loading.get().duplicate();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+		try {
+			byteBuffer = load(fileHouse, urlSupplier.get());
+			put(fileHouseId, byteBuffer);
+			future.complete(byteBuffer);
+			return byteBuffer.duplicate();
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loadings.remove(fileHouseId);
+		}
+	}
+	
+	private ByteBuffer load(FileHouse fileHouse, String url) throws IOException {
+		try (CloseableHttpResponse response = HttpClientServletUtils.get(httpClient, url)) {
+			int statusCode = response.getStatusLine().getStatusCode();
+			Assert.state(statusCode == 200, "读取文件失败：" + fileHouse.getPathname() + "，状态码：" + statusCode);
+			HttpEntity entity = response.getEntity();
+			Assert.notNull(entity, "读取文件失败：" + fileHouse.getPathname());
+			ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileHouse.getSizeByte().intValue());
+			try (InputStream inputStream = entity.getContent();
+				 BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE)) {
+				byte[] buffer = pooledBuffer.get();
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					Assert.state(read <= byteBuffer.remaining(), "文件大小与记录不一致：" + fileHouse.getPathname());
+					byteBuffer.put(buffer, 0, read);
+				}
+			}
+			Assert.state(!byteBuffer.hasRemaining(), "文件大小与记录不一致：" + fileHouse.getPathname());
+			byteBuffer.flip();
+			return byteBuffer.asReadOnlyBuffer();
+		}
+	}
+	
+	private void put(Long fileHouseId, ByteBuffer byteBuffer) {
+		long maxBytes = mosServerProperties.getHotObjectCacheBytes();
+		synchronized (cache) {
+			ByteBuffer old = cache.put(fileHouseId, byteBuffer);
+			if (old != null) {
+				currentBytes -= old.capacity();
+			}
+			currentBytes += byteBuffer.capacity();
+			Iterator<Map.Entry<Long, ByteBuffer>> iterator = cache.entrySet().iterator();
+			while (currentBytes > maxBytes && iterator.hasNext()) {
+				Map.Entry<Long, ByteBuffer> eldest = iterator.next();
+				currentBytes -= eldest.getValue().capacity();
+				iterator.remove();
+			}
+		}
+	}
+	
+	private void evict(Long fileHouseId) {
+		synchronized (cache) {
+			ByteBuffer old = cache.remove(fileHouseId);
+			if (old != null) {
+				currentBytes -= old.capacity();
+			}
+		}
+	}
+	
+	@EventListener
+	public void onResourceVersionChange(ResourceVersionEvent event) {
+		if (event.getFileHouseId() != null) {
+			evict(event.getFileHouseId());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package mt.spring.mos.server.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.listener.ResourceVersionEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 模板渲染内容缓存，按fileHouseId+字符集缓存解码后的文本，按内存预算淘汰
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+public class RenderCacheService {
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	
+	private final LinkedHashMap<RenderKey, CachedContent> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private long currentBytes;
+	
+	@Data
+	@AllArgsConstructor
+	private static class RenderKey {
+		private Long fileHouseId;
+		private String url;
+		private String charset;
+	}
+	
+	@AllArgsConstructor
+	private static class CachedContent {
+		private final String content;
+		private final long expireTime;
+		
+		long bytes() {
+			return content.length() * 2L;
+		}
+	}
+	
+	/**
+	 * 获取文件的文本内容，fileHouse内容不可变，不设置过期时间
+	 *
+	 * @param fileHouseId 文件id，为空时不缓存
+	 * @param charset     字符集
+	 * @param loader      未命中时读取内容
+	 * @return 文本内容
+	 */
+	public String getContent(Long fileHouseId, String charset, Supplier<String> loader) {
+		if (fileHouseId == null) {
+			return loader.get();
+		}
+		return getContent(new RenderKey(fileHouseId, null, charset), Long.MAX_VALUE, loader);
+	}
+	
+	/**
+	 * 获取地址的文本内容，地址对应的内容可能变化，按mos.server.render-cache-seconds过期
+	 *
+	 * @param url     地址
+	 * @param charset 字符集
+	 * @param loader  未命中时读取内容
+	 * @return 文本内容
+	 */
+	public String getContentByUrl(String url, String charset, Supplier<String> loader) {
+		long expireTime = System.currentTimeMillis() + mosServerProperties.getRenderCacheSeconds() * 1000L;
+		return getContent(new RenderKey(null, url, charset), expireTime, loader);
+	}
+	
+	private String getContent(RenderKey key, long expireTime, Supplier<String> loader) {
+		long maxBytes = mosServerProperties.getRenderCacheBytes();
+		if (maxBytes <= 0) {
+			return loader.get();
+		}
+		synchronized (cache) {
+			CachedContent cachedContent = cache.get(key);
+			if (cachedContent != null) {
+				if (cachedContent.expireTime > System.currentTimeMillis()) {
+					return cachedContent.content;
+				}
+				remove(key);
+			}
+		}
+		String content = loader.get();
+		if (content != null && content.length() * 2L <= maxBytes) {
+			put(key, new CachedContent(content, expireTime), maxBytes);
+		}
+		return content;
+	}
+	
+	private void put(RenderKey key, CachedContent cachedContent, long maxBytes) {
+		synchronized (cache) {
+			CachedContent old = cache.put(key, cachedContent);
+			if (old != null) {
+				currentBytes -= old.bytes();
+			}
+			currentBytes += cachedContent.bytes();
+			Iterator<Map.Entry<RenderKey, CachedContent>> iterator = cache.entrySet().iterator();
+			while (currentBytes > maxBytes && iterator.hasNext()) {
+				Map.Entry<RenderKey, CachedContent> eldest = iterator.next();
+				currentBytes -= eldest.getValue().bytes();
+				iterator.remove();
+			}
+		}
+	}
+	
+	private void remove(RenderKey key) {
+		CachedContent old = cache.remove(key);
+		if (old != null) {
+			currentBytes -= old.bytes();
+		}
+	}
+	
+	@EventListener
+	public void onResourceVersionChange(ResourceVersionEvent event) {
+		Long fileHouseId = event.getFileHouseId();
+		if (fileHouseId == null) {
+			return;
+		}
+		synchronized (cache) {
+			Iterator<Map.Entry<RenderKey, CachedContent>> iterator = cache.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<RenderKey, CachedContent> entry = iterator.next();
+				if (fileHouseId.equals(entry.getKey().getFileHouseId())) {
+					currentBytes -= entry.getValue().bytes();
+					iterator.remove();
+				}
+			}
+		}
+	}
+}
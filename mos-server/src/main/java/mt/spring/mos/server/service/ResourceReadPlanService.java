@@ -0,0 +1,191 @@
+package mt.spring.mos.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.server.dao.RelaClientResourceMapper;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.dto.ResourceReadPlan;
+import mt.spring.mos.server.entity.po.*;
+import mt.spring.mos.server.listener.ResourceVersionEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 资源读取缓存：(bucketId, pathname) -> 读取计划
+ * 重命名、删除、覆盖、备份等操作通过{@link ResourceVersionEvent}失效缓存，多个服务端之间通过redis topic同步
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class ResourceReadPlanService implements InitializingBean {
+	private static final String TOPIC_NAME = "mos-server:resource-version";
+	private static final String BUCKET_PREFIX = "bucket:";
+	private static final String FILE_HOUSE_PREFIX = "fileHouse:";
+	@Autowired
+	@Lazy
+	private ResourceService resourceService;
+	@Autowired
+	@Lazy
+	private FileHouseService fileHouseService;
+	@Autowired
+	@Lazy
+	private FileHouseRelaClientService fileHouseRelaClientService;
+	@Autowired
+	private RelaClientResourceMapper relaClientResourceMapper;
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	@Autowired
+	private RedissonClient redissonClient;
+	
+	private final Map<Long, AtomicLong> bucketVersions = new ConcurrentHashMap<>();
+	private final Map<String, ResourceReadPlan> cache = new LinkedHashMap<String, ResourceReadPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ResourceReadPlan> eldest) {
+			return size() > mosServerProperties.getReadPlanCacheSize();
+		}
+	};
+	private RTopic topic;
+	
+	@Override
+	public void afterPropertiesSet() {
+		topic = redissonClient.getTopic(TOPIC_NAME, StringCodec.INSTANCE);
+		topic.addListener(String.class, (channel, msg) -> {
+			if (msg.startsWith(BUCKET_PREFIX)) {
+				evictBucket(Long.parseLong(msg.substring(BUCKET_PREFIX.length())));
+			} else if (msg.startsWith(FILE_HOUSE_PREFIX)) {
+				evictFileHouse(Long.parseLong(msg.substring(FILE_HOUSE_PREFIX.length())));
+			}
+		});
+	}
+	
+	private boolean isEnabled() {
+		return mosServerProperties.getReadPlanCacheSize() > 0 && mosServerProperties.getReadPlanCacheSeconds() > 0;
+	}
+	
+	private String getKey(Long bucketId, String pathname) {
+		return bucketId + ":" + pathname;
+	}
+	
+	private long getBucketVersion(Long bucketId) {
+		return bucketVersions.computeIfAbsent(bucketId, k -> new AtomicLong()).get();
+	}
+	
+	/**
+	 * 查询资源读取计划
+	 *
+	 * @param bucketId bucketId
+	 * @param pathname 资源路径
+	 * @return 资源不存在时返回null
+	 */
+	@Nullable
+	public ResourceReadPlan findReadPlan(@NotNull Long bucketId, @NotNull String pathname) {
+		if (!pathname.startsWith("/")) {
+			pathname = "/" + pathname;
+		}
+		if (!isEnabled()) {
+			return loadReadPlan(bucketId, pathname, 0);
+		}
+		String key = getKey(bucketId, pathname);
+		long bucketVersion = getBucketVersion(bucketId);
+		ResourceReadPlan readPlan;
+		synchronized (cache) {
+			readPlan = cache.get(key);
+		}
+		if (readPlan != null && readPlan.getBucketVersion() == bucketVersion && readPlan.getExpireTime() > System.currentTimeMillis()) {
+			return readPlan;
+		}
+		//先取版本再加载，加载期间发生变更时下次读取会重新加载
+		readPlan = loadReadPlan(bucketId, pathname, bucketVersion);
+		synchronized (cache) {
+			if (readPlan == null) {
+				cache.remove(key);
+			} else {
+				cache.put(key, readPlan);
+			}
+		}
+		return readPlan;
+	}
+	
+	private ResourceReadPlan loadReadPlan(Long bucketId, String pathname, long bucketVersion) {
+		Resource resource = resourceService.findResourceByPathnameAndBucketId(pathname, bucketId);
+		if (resource == null) {
+			return null;
+		}
+		ResourceReadPlan readPlan = new ResourceReadPlan();
+		readPlan.setBucketId(bucketId);
+		readPlan.setPathname(pathname);
+		readPlan.setResource(resource);
+		if (resource.getFileHouseId() == null) {
+			List<RelaClientResource> relas = relaClientResourceMapper.findList("resourceId", resource.getId());
+			readPlan.setClientIds(relas.stream().map(RelaClientResource::getClientId).collect(Collectors.toList()));
+		} else {
+			readPlan.setFileHouse(fileHouseService.findById(resource.getFileHouseId()));
+			readPlan.setClientIds(findClientIds(resource.getFileHouseId()));
+			if (resource.getThumbFileHouseId() != null) {
+				readPlan.setThumbFileHouse(fileHouseService.findById(resource.getThumbFileHouseId()));
+				readPlan.setThumbClientIds(findClientIds(resource.getThumbFileHouseId()));
+			}
+		}
+		readPlan.setBucketVersion(bucketVersion);
+		readPlan.setExpireTime(System.currentTimeMillis() + mosServerProperties.getReadPlanCacheSeconds() * 1000L);
+		return readPlan;
+	}
+	
+	private List<Long> findClientIds(Long fileHouseId) {
+		return fileHouseRelaClientService.findListByFileHouseId(fileHouseId).stream().map(FileHouseRelaClient::getClientId).collect(Collectors.toList());
+	}
+	
+	private void evictBucket(Long bucketId) {
+		bucketVersions.computeIfAbsent(bucketId, k -> new AtomicLong()).incrementAndGet();
+	}
+	
+	private void evictFileHouse(Long fileHouseId) {
+		synchronized (cache) {
+			cache.values().removeIf(readPlan -> isReferenced(readPlan.getFileHouse(), fileHouseId) || isReferenced(readPlan.getThumbFileHouse(), fileHouseId));
+		}
+	}
+	
+	private boolean isReferenced(FileHouse fileHouse, Long fileHouseId) {
+		return fileHouse != null && fileHouse.getId().equals(fileHouseId);
+	}
+	
+	/**
+	 * 事务提交后再失效，避免并发读取到旧数据后重新放入缓存
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onResourceVersionChange(ResourceVersionEvent event) {
+		String msg;
+		if (event.getBucketId() != null) {
+			evictBucket(event.getBucketId());
+			msg = BUCKET_PREFIX + event.getBucketId();
+		} else if (event.getFileHouseId() != null) {
+			evictFileHouse(event.getFileHouseId());
+			msg = FILE_HOUSE_PREFIX + event.getFileHouseId();
+		} else {
+			return;
+		}
+		try {
+			topic.publish(msg);
+		} catch (RuntimeException e) {
+			log.error("发布资源变更消息失败：" + e.getMessage(), e);
+		}
+	}
+}
@@ -10,8 +10,11 @@ import mt.common.mybatis.utils.MyBatisUtils;
 import mt.common.service.BaseServiceImpl;
 import mt.common.tkmapper.Filter;
 import mt.common.utils.BeanUtils;
+import mt.spring.mos.base.utils.VisitSignUtils;
 import mt.spring.mos.server.dao.RelaClientResourceMapper;
 import mt.spring.mos.server.dao.ResourceMapper;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.dto.BatchUploadItem;
 import mt.spring.mos.server.entity.dto.ResourceCopyDto;
 import mt.spring.mos.server.entity.dto.ResourceSearchDto;
 import mt.spring.mos.server.entity.dto.ResourceUpdateDto;
@@ -19,6 +22,7 @@ import mt.spring.mos.server.entity.dto.Thumb;
 import mt.spring.mos.server.entity.po.*;
 import mt.spring.mos.server.entity.vo.DirAndResourceVo;
 import mt.spring.mos.server.listener.ClientWorkLogEvent;
+import mt.spring.mos.server.listener.ResourceVersionEvent;
 import mt.spring.mos.server.service.clientapi.ClientApiFactory;
 import mt.spring.mos.server.service.clientapi.IClientApi;
 import mt.spring.mos.server.service.thumb.ThumbSupport;
@@ -42,10 +46,7 @@ import org.springframework.util.Assert;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -59,6 +60,10 @@ import static mt.common.tkmapper.Filter.Operator.eq;
 @Service
 @Slf4j
 public class ResourceService extends BaseServiceImpl<Resource> {
+	/**
+	 * 批量插入时每条语句的行数
+	 */
+	private static final int BATCH_INSERT_SIZE = 500;
 	@Autowired
 	private ResourceMapper resourceMapper;
 	@Autowired
@@ -86,6 +91,8 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 	private AuditService auditService;
 	@Autowired
 	private ClientApiFactory clientApiFactory;
+	@Autowired
+	private MosServerProperties mosServerProperties;
 	
 	@Override
 	public BaseMapper<Resource> getBaseMapper() {
@@ -109,6 +116,7 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 			resource.setIsPublic(bucket.getDefaultIsPublic());
 		}
 		resource.setDirId(dir.getId());
+		resource.setPathnameHash(Resource.getPathnameHash(bucketId, dir.getPath(), resource.getName()));
 		resource.setSuffix("." + resource.getExtension());
 		resource.setVisits(0L);
 		save(resource);
@@ -150,17 +158,33 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 		if (!pathname.startsWith("/")) {
 			pathname = "/" + pathname;
 		}
+		return findOne("pathnameHash", getPathnameHash(pathname, bucketId));
+	}
+	
+	private String getPathnameHash(String pathname, Long bucketId) {
 		File file = new File(pathname);
 		String path = file.getParent().replace("\\", "/");
-		String name = file.getName();
-		Dir dir = dirService.findOneByPathAndBucketId(path, bucketId);
-		if (dir == null) {
-			return null;
+		return Resource.getPathnameHash(bucketId, path, file.getName());
+	}
+	
+	/**
+	 * 批量判断资源是否存在，一次查询
+	 *
+	 * @return 已存在的pathname
+	 */
+	public Set<String> findExistsPathnames(Collection<String> pathnames, Long bucketId) {
+		Map<String, String> hashes = new HashMap<>();
+		for (String pathname : pathnames) {
+			hashes.put(getPathnameHash(pathname.startsWith("/") ? pathname : "/" + pathname, bucketId), pathname);
 		}
-		List<Filter> filters = new ArrayList<>();
-		filters.add(new Filter("dirId", eq, dir.getId()));
-		filters.add(new Filter("name", eq, name));
-		return findOneByFilters(filters);
+		Set<String> exists = new HashSet<>();
+		if (hashes.isEmpty()) {
+			return exists;
+		}
+		for (Resource resource : findByFilters(Collections.singletonList(new Filter("pathnameHash", Filter.Operator.in, new ArrayList<>(hashes.keySet()))))) {
+			exists.add(hashes.get(resource.getPathnameHash()));
+		}
+		return exists;
 	}
 	
 	public Resource findResourceByIdAndBucketId(Long resourceId, @NotNull Long bucketId) {
@@ -186,23 +210,41 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 	
 	public String getDesUrl(Client client, Bucket bucket, Resource resource, boolean thumb) {
 		Long fileHouseId = resource.getFileHouseId();
-		String url;
 		String pathname = getPathname(resource);
-		if (fileHouseId == null) {
-			url = "/" + bucket.getId() + pathname;
-		} else {
-			FileHouse fileHouse;
+		FileHouse fileHouse = null;
+		if (fileHouseId != null) {
 			if (thumb) {
 				Assert.notNull(resource.getThumbFileHouseId(), "资源" + pathname + "无缩略图");
 				fileHouse = fileHouseService.findById(resource.getThumbFileHouseId());
 			} else {
 				fileHouse = fileHouseService.findById(fileHouseId);
 			}
+		}
+		return getDesUrl(client, bucket, pathname, fileHouse);
+	}
+	
+	public String getDesUrl(Client client, Bucket bucket, String pathname, @Nullable FileHouse fileHouse) {
+		return getDesUrl(client, bucket, pathname, fileHouse, null);
+	}
+	
+	/**
+	 * @param responseContentType 客户端响应的Content-Type，和路径一起签名，未配置签名秘钥时忽略
+	 */
+	public String getDesUrl(Client client, Bucket bucket, String pathname, @Nullable FileHouse fileHouse, @Nullable String responseContentType) {
+		String url;
+		if (fileHouse == null) {
+			url = "/" + bucket.getId() + pathname;
+		} else {
 			url = fileHouse.getPathname();
 			if (fileHouse.getEncode() != null && fileHouse.getEncode()) {
 				url += "?encodeKey=" + fileHouse.getPathname();
 			}
 		}
+		String visitSignKey = mosServerProperties.getVisitSignKey();
+		if (StringUtils.isNotBlank(visitSignKey)) {
+			String path = url.contains("?") ? url.substring(0, url.indexOf("?")) : url;
+			url += (url.contains("?") ? "&" : "?") + VisitSignUtils.getSignQuery(visitSignKey, path, mosServerProperties.getVisitSignExpireSeconds(), responseContentType);
+		}
 		url = client.getUrl() + "/mos" + url;
 		return url;
 	}
@@ -278,6 +320,7 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 			}
 		}
 		deleteById(resourceId);
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
 	}
 	
 	private String checkPathname(String pathname) {
@@ -324,6 +367,7 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 			}
 		}
 		dirService.deleteById(dir);
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
 	}
 	
 	public final List<String> sortFields = Arrays.asList("path", "sizeByte", "createdDate", "createdBy", "updatedDate", "updatedBy", "isPublic", "contentType", "visits");
@@ -419,6 +463,7 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 			stringRedisTemplate.opsForValue().set("refresh-content-type:" + resourceUpdateDto.getId(), "true", 1, TimeUnit.HOURS);
 		}
 		updateById(resource);
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
 	}
 	
 	@Transactional
@@ -444,7 +489,9 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 		Dir dir = dirService.addDir(dirService.getParentPath(desPathname), bucket.getId());
 		resource.setName(getName(desPathname));
 		resource.setDirId(dir.getId());
+		resource.setPathnameHash(Resource.getPathnameHash(bucket.getId(), dir.getPath(), resource.getName()));
 		updateById(resource);
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
 	}
 	
 	@Transactional
@@ -492,6 +539,7 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 				}
 				addResourceIfNotExist(pathname, resource, bucket.getId());
 			}
+			applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
 		} finally {
 			if (lock != null) {
 				lock.unlock();
@@ -499,6 +547,83 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 		}
 	}
 	
+	/**
+	 * 批量新增资源，新资源在一个事务中批量插入，已存在的资源覆盖时逐个更新
+	 *
+	 * @param bucket bucket
+	 * @param items  文件，fileHouse已确定
+	 * @param failed 失败的文件及原因
+	 * @return 被资源引用的fileHouseId
+	 */
+	@Transactional
+	public Set<Long> addResources(Bucket bucket, List<BatchUploadItem> items, Map<String, String> failed) {
+		Set<Long> usedFileHouseIds = new HashSet<>();
+		Map<String, Dir> dirs = new HashMap<>();
+		Map<Long, String> dirPaths = new HashMap<>();
+		Map<Long, Map<String, BatchUploadItem>> dirItems = new LinkedHashMap<>();
+		for (BatchUploadItem item : items) {
+			String pathname;
+			try {
+				pathname = checkPathname(item.getPathname());
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				failed.put(item.getPathname(), e.getMessage());
+				continue;
+			}
+			Dir dir = dirs.computeIfAbsent(dirService.getParentPath(pathname), path -> dirService.addDir(path, bucket.getId()));
+			dirPaths.put(dir.getId(), dir.getPath());
+			Map<String, BatchUploadItem> names = dirItems.computeIfAbsent(dir.getId(), dirId -> new LinkedHashMap<>());
+			String name = getName(pathname);
+			if (names.containsKey(name)) {
+				failed.put(item.getPathname(), "pathname重复");
+				continue;
+			}
+			item.setPathname(pathname);
+			names.put(name, item);
+		}
+		Date now = new Date();
+		List<Resource> resources = new ArrayList<>();
+		for (Map.Entry<Long, Map<String, BatchUploadItem>> entry : dirItems.entrySet()) {
+			Long dirId = entry.getKey();
+			Map<String, BatchUploadItem> names = entry.getValue();
+			List<Filter> filters = new ArrayList<>();
+			filters.add(new Filter("dirId", eq, dirId));
+			filters.add(new Filter("name", Filter.Operator.in, new ArrayList<>(names.keySet())));
+			for (Resource findResource : findByFilters(filters)) {
+				BatchUploadItem item = names.remove(findResource.getName());
+				if (item.isCover()) {
+					addOrUpdateResource(item.getPathname(), item.getLastModified(), item.getIsPublic(), item.getContentType(), true, item.getFileHouse(), bucket);
+					usedFileHouseIds.add(item.getFileHouse().getId());
+				} else {
+					failed.put(item.getPathname(), "资源文件已存在");
+				}
+			}
+			for (Map.Entry<String, BatchUploadItem> nameEntry : names.entrySet()) {
+				BatchUploadItem item = nameEntry.getValue();
+				Resource resource = new Resource();
+				resource.setName(nameEntry.getKey());
+				resource.setDirId(dirId);
+				resource.setPathnameHash(Resource.getPathnameHash(bucket.getId(), dirPaths.get(dirId), resource.getName()));
+				resource.setContentType(item.getContentType());
+				resource.setSizeByte(item.getFileHouse().getSizeByte());
+				resource.setFileHouseId(item.getFileHouse().getId());
+				resource.setIsPublic(item.getIsPublic() != null ? item.getIsPublic() : bucket.getDefaultIsPublic());
+				resource.setLastModified(item.getLastModified());
+				resource.setSuffix("." + resource.getExtension());
+				resource.setVisits(0L);
+				resource.setCreatedDate(now);
+				resource.setUpdatedDate(now);
+				resources.add(resource);
+				usedFileHouseIds.add(resource.getFileHouseId());
+			}
+		}
+		for (int i = 0; i < resources.size(); i += BATCH_INSERT_SIZE) {
+			resourceMapper.insertBatch(resources.subList(i, Math.min(i + BATCH_INSERT_SIZE, resources.size())));
+		}
+		log.info("批量新增文件{}个", resources.size());
+		applicationEventPublisher.publishEvent(ResourceVersionEvent.ofBucket(this, bucket.getId()));
+		return usedFileHouseIds;
+	}
+	
 	public List<Resource> findNeedConvertToFileHouse(int limit) {
 		PageHelper.startPage(1, limit);
 		return resourceMapper.findNeedConvertToFileHouse();
@@ -558,6 +683,7 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 			thumbFileHouse = fileHouseService.addFileHouseIfNotExists(thumbFileHouse, client);
 			resource.setThumbFileHouseId(thumbFileHouse.getId());
 			updateByIdSelective(resource);
+			applicationEventPublisher.publishEvent(ResourceVersionEvent.ofFileHouse(this, resource.getFileHouseId()));
 			log.info("{}截图生成成功:{}", pathname, thumb);
 			return new AsyncResult<>(true);
 		} catch (RuntimeException e) {
@@ -570,8 +696,16 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 		return new AsyncResult<>(false);
 	}
 	
-	public void addVisits(Long resourceId) {
-		resourceMapper.addVisits(resourceId);
+	/**
+	 * 批量累加访问次数
+	 *
+	 * @param visits resourceId -> 新增访问次数
+	 */
+	public void addVisits(Map<Long, Long> visits) {
+		if (visits.isEmpty()) {
+			return;
+		}
+		resourceMapper.addVisitsBatch(visits);
 	}
 	
 	@Transactional
@@ -579,6 +713,13 @@ public class ResourceService extends BaseServiceImpl<Resource> {
 		resourceMapper.changeDir(srcDirId, desDirId);
 	}
 	
+	/**
+	 * 文件夹路径修改后，批量更新其中资源的全路径索引
+	 */
+	public void updatePathnameHash(Long dirId) {
+		resourceMapper.updatePathnameHashByDirId(dirId);
+	}
+	
 	@Transactional
 	public void copyToBucket(ResourceCopyDto resourceCopyDto, Bucket srcBucket, Bucket desBucket) {
 		List<Long> dirIds = resourceCopyDto.getDirIds();
@@ -0,0 +1,129 @@
+package mt.spring.mos.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 资源访问次数统计：访问时只在内存中累加，定时批量写入数据库，
+ * 避免热点资源每次访问都更新同一行
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class ResourceVisitService {
+	/**
+	 * 每次批量更新的最大条数
+	 */
+	private static final int BATCH_SIZE = 500;
+	@Autowired
+	@Lazy
+	private ResourceService resourceService;
+	
+	private final Map<Long, VisitCounter> counters = new ConcurrentHashMap<>();
+	
+	private static class VisitCounter {
+		/**
+		 * 已移除的计数器，不再累加
+		 */
+		private static final long RETIRED = -1;
+		private final AtomicLong visits = new AtomicLong();
+		/**
+		 * 已写入数据库的次数，只在flush线程中读写
+		 */
+		private long flushed;
+		
+		/**
+		 * @return 计数器已移除时返回false
+		 */
+		boolean increment() {
+			while (true) {
+				long current = visits.get();
+				if (current == RETIRED) {
+					return false;
+				}
+				if (visits.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+		
+		/**
+		 * 没有未写入的访问时标记为已移除，之后的访问使用新的计数器
+		 */
+		boolean retire() {
+			return visits.compareAndSet(flushed, RETIRED);
+		}
+	}
+	
+	public void addVisit(Long resourceId) {
+		while (true) {
+			VisitCounter counter = counters.computeIfAbsent(resourceId, id -> new VisitCounter());
+			if (counter.increment()) {
+				return;
+			}
+			counters.remove(resourceId, counter);
+		}
+	}
+	
+	@Scheduled(fixedDelayString = "${mos.server.visit-flush-interval-mills:5000}")
+	public synchronized void flush() {
+		Map<Long, Long> batch = new HashMap<>();
+		Map<VisitCounter, Long> sums = new HashMap<>();
+		for (Map.Entry<Long, VisitCounter> entry : counters.entrySet()) {
+			Long resourceId = entry.getKey();
+			VisitCounter counter = entry.getValue();
+			long sum = counter.visits.get();
+			if (sum == VisitCounter.RETIRED) {
+				counters.remove(resourceId, counter);
+				continue;
+			}
+			long delta = sum - counter.flushed;
+			if (delta == 0) {
+				//移除空闲计数器，标记成功后不会再有访问累加到这个计数器上
+				if (counter.retire()) {
+					counters.remove(resourceId, counter);
+				}
+				continue;
+			}
+			batch.put(resourceId, delta);
+			sums.put(counter, sum);
+			if (batch.size() >= BATCH_SIZE) {
+				save(batch, sums);
+				batch = new HashMap<>();
+				sums = new HashMap<>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			save(batch, sums);
+		}
+	}
+	
+	/**
+	 * 写入成功后才记录已写入次数，失败的次数下次重新写入
+	 */
+	private void save(Map<Long, Long> batch, Map<VisitCounter, Long> sums) {
+		try {
+			resourceService.addVisits(batch);
+			sums.forEach((counter, sum) -> counter.flushed = sum);
+		} catch (RuntimeException e) {
+			log.error("保存访问次数失败，下次重新写入：" + e.getMessage(), e);
+		}
+	}
+	
+	@PreDestroy
+	public void destroy() {
+		log.info("保存未写入的访问次数...");
+		flush();
+	}
+}
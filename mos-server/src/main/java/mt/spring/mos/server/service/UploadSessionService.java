@@ -0,0 +1,234 @@
+package mt.spring.mos.server.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import mt.spring.mos.server.entity.MosServerProperties;
+import mt.spring.mos.server.entity.po.FileHouse;
+import mt.spring.mos.server.listener.MergeVerifyFailedEvent;
+import mt.spring.mos.server.listener.UploadSessionEndEvent;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RMapAsync;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 上传会话：分片上传过程中的状态（目标存储服务器、分片位图、分片md5）保存在redis中，
+ * 登记分片不加锁、不写库，setbit保证重复登记幂等，合并事务提交后删除；
+ * 登记分片时发布通知，合并前等待分片的一方订阅通知，不轮询
+ *
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Service
+@Slf4j
+public class UploadSessionService {
+	private static final String KEY_PREFIX = "mos-server:upload-session:";
+	private static final String FIELD_CLIENT_ID = "clientId";
+	private static final String FIELD_CHUNK_TEMP_PATH = "chunkTempPath";
+	private static final String FIELD_PATHNAME = "pathname";
+	private static final String FIELD_SIZE_BYTE = "sizeByte";
+	private static final String FIELD_CHUNK_PREFIX = "chunk:";
+	@Autowired
+	private RedissonClient redissonClient;
+	@Autowired
+	private MosServerProperties mosServerProperties;
+	
+	@Data
+	public static class UploadSession {
+		private long fileHouseId;
+		private Long clientId;
+		private String chunkTempPath;
+		/**
+		 * 合并后的文件
+		 */
+		private String pathname;
+		private long sizeByte;
+		/**
+		 * 已登记分片的md5，只包含查询的分片
+		 */
+		private Map<Integer, String> chunkMd5s = new HashMap<>();
+		
+		public boolean hasUploaded(int chunkIndex, String chunkMd5) {
+			return chunkMd5 != null && chunkMd5.equalsIgnoreCase(chunkMd5s.get(chunkIndex));
+		}
+		
+		public String getItemName(int chunkIndex) {
+			return chunkTempPath + "/part" + chunkIndex;
+		}
+	}
+	
+	private String getSessionKey(long fileHouseId) {
+		return KEY_PREFIX + fileHouseId;
+	}
+	
+	private String getChunksKey(long fileHouseId) {
+		return KEY_PREFIX + fileHouseId + ":chunks";
+	}
+	
+	private String getChunkTopic(long fileHouseId) {
+		return KEY_PREFIX + fileHouseId + ":chunk-topic";
+	}
+	
+	private String getFileHouseKey(String md5, long size) {
+		return KEY_PREFIX + "file:" + md5 + ":" + size;
+	}
+	
+	private long getExpireSeconds() {
+		return mosServerProperties.getUploadSessionExpireSeconds();
+	}
+	
+	/**
+	 * 开始上传会话，已登记的分片保留
+	 *
+	 * @param fileHouse 上传中的文件
+	 * @param clientId  目标存储服务器
+	 */
+	public void start(FileHouse fileHouse, Long clientId) {
+		long fileHouseId = fileHouse.getId();
+		RBatch batch = redissonClient.createBatch(BatchOptions.defaults());
+		RMapAsync<String, String> session = batch.getMap(getSessionKey(fileHouseId), StringCodec.INSTANCE);
+		session.fastPutAsync(FIELD_CLIENT_ID, String.valueOf(clientId));
+		session.fastPutAsync(FIELD_CHUNK_TEMP_PATH, fileHouse.getChunkTempPath());
+		session.fastPutAsync(FIELD_PATHNAME, fileHouse.getPathname());
+		session.fastPutAsync(FIELD_SIZE_BYTE, String.valueOf(fileHouse.getSizeByte()));
+		session.expireAsync(getExpireSeconds(), TimeUnit.SECONDS);
+		batch.getBitSet(getChunksKey(fileHouseId)).expireAsync(getExpireSeconds(), TimeUnit.SECONDS);
+		batch.getBucket(getFileHouseKey(fileHouse.getMd5(), fileHouse.getSizeByte()), StringCodec.INSTANCE).setAsync(String.valueOf(fileHouseId), getExpireSeconds(), TimeUnit.SECONDS);
+		batch.execute();
+	}
+	
+	/**
+	 * 查询会话
+	 *
+	 * @param fileHouseId 文件id
+	 * @param chunkIndex  同时查询的分片，可为空
+	 * @return 会话不存在时返回null
+	 */
+	public UploadSession getSession(long fileHouseId, Integer chunkIndex) {
+		Set<String> fields = new HashSet<>(Arrays.asList(FIELD_CLIENT_ID, FIELD_CHUNK_TEMP_PATH, FIELD_PATHNAME, FIELD_SIZE_BYTE));
+		if (chunkIndex != null) {
+			fields.add(FIELD_CHUNK_PREFIX + chunkIndex);
+		}
+		Map<String, String> values = redissonClient.<String, String>getMap(getSessionKey(fileHouseId), StringCodec.INSTANCE).getAll(fields);
+		String clientId = values.get(FIELD_CLIENT_ID);
+		if (clientId == null) {
+			return null;
+		}
+		UploadSession uploadSession = new UploadSession();
+		uploadSession.setFileHouseId(fileHouseId);
+		uploadSession.setClientId(Long.parseLong(clientId));
+		uploadSession.setChunkTempPath(values.get(FIELD_CHUNK_TEMP_PATH));
+		uploadSession.setPathname(values.get(FIELD_PATHNAME));
+		if (values.get(FIELD_SIZE_BYTE) != null) {
+			uploadSession.setSizeByte(Long.parseLong(values.get(FIELD_SIZE_BYTE)));
+		}
+		if (chunkIndex != null && values.get(FIELD_CHUNK_PREFIX + chunkIndex) != null) {
+			uploadSession.getChunkMd5s().put(chunkIndex, values.get(FIELD_CHUNK_PREFIX + chunkIndex));
+		}
+		return uploadSession;
+	}
+	
+	/**
+	 * 按md5和大小查找上传中的文件id
+	 */
+	public Long findFileHouseId(String md5, long size) {
+		String fileHouseId = redissonClient.<String>getBucket(getFileHouseKey(md5, size), StringCodec.INSTANCE).get();
+		return fileHouseId != null ? Long.parseLong(fileHouseId) : null;
+	}
+	
+	/**
+	 * 登记分片，一次往返完成
+	 */
+	public void addChunk(long fileHouseId, int chunkIndex, String chunkMd5) {
+		RBatch batch = redissonClient.createBatch(BatchOptions.defaults());
+		RMapAsync<String, String> session = batch.getMap(getSessionKey(fileHouseId), StringCodec.INSTANCE);
+		session.fastPutAsync(FIELD_CHUNK_PREFIX + chunkIndex, chunkMd5);
+		session.expireAsync(getExpireSeconds(), TimeUnit.SECONDS);
+		batch.getBitSet(getChunksKey(fileHouseId)).setAsync(chunkIndex);
+		batch.getBitSet(getChunksKey(fileHouseId)).expireAsync(getExpireSeconds(), TimeUnit.SECONDS);
+		batch.getTopic(getChunkTopic(fileHouseId), StringCodec.INSTANCE).publishAsync(String.valueOf(chunkIndex));
+		batch.execute();
+	}
+	
+	/**
+	 * 等待分片登记完成，每登记一个分片收到一次通知后重新计数
+	 *
+	 * @param fileHouseId  文件id
+	 * @param chunks       分片数
+	 * @param timeoutMills 最长等待时间，单位毫秒
+	 * @return 超时前分片已登记完整返回true
+	 */
+	public boolean awaitChunks(long fileHouseId, int chunks, long timeoutMills) throws InterruptedException {
+		if (countChunks(fileHouseId) >= chunks) {
+			return true;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMills;
+		Semaphore signal = new Semaphore(0);
+		RTopic topic = redissonClient.getTopic(getChunkTopic(fileHouseId), StringCodec.INSTANCE);
+		int listenerId = topic.addListener(String.class, (channel, chunkIndex) -> signal.release());
+		try {
+			//订阅后再计数，订阅前登记的分片不会漏掉
+			while (countChunks(fileHouseId) < chunks) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				signal.tryAcquire(remaining, TimeUnit.MILLISECONDS);
+				signal.drainPermits();
+			}
+			return true;
+		} finally {
+			topic.removeListener(listenerId);
+		}
+	}
+	
+	public List<Integer> findChunkIndexs(long fileHouseId) {
+		BitSet bitSet = redissonClient.getBitSet(getChunksKey(fileHouseId)).asBitSet();
+		return bitSet.stream().boxed().collect(Collectors.toList());
+	}
+	
+	public int countChunks(long fileHouseId) {
+		return (int) redissonClient.getBitSet(getChunksKey(fileHouseId)).cardinality();
+	}
+	
+	/**
+	 * 重置会话，已登记的分片全部作废，下次上传时重新开始会话
+	 */
+	public void reset(long fileHouseId) {
+		redissonClient.getKeys().delete(getSessionKey(fileHouseId), getChunksKey(fileHouseId));
+	}
+	
+	/**
+	 * 删除会话
+	 */
+	public void delete(long fileHouseId, String md5, long size) {
+		redissonClient.getKeys().delete(getSessionKey(fileHouseId), getChunksKey(fileHouseId), getFileHouseKey(md5, size));
+	}
+	
+	/**
+	 * 合并提交后删除会话，合并失败回滚时不删除
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	public void onUploadSessionEnd(UploadSessionEndEvent event) {
+		delete(event.getFileHouseId(), event.getMd5(), event.getSize());
+	}
+	
+	/**
+	 * 合并校验失败时已上传的分片随文件一起清除，会话也要删除，否则续传会跳过不存在的分片
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_ROLLBACK)
+	public void onMergeVerifyFailed(MergeVerifyFailedEvent event) {
+		delete(event.getFileHouseId(), event.getMd5(), event.getSize());
+	}
+}
@@ -21,12 +21,16 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * @Author Martin
@@ -37,11 +41,28 @@ public class ClientApi implements IClientApi {
 	private final Client client;
 	private final CloseableHttpClient httpClient;
 	private final RestTemplate restTemplate;
+	/**
+	 * 连接或读写客户端失败时回调
+	 */
+	private final Consumer<Client> failureHandler;
 	
-	public ClientApi(Client client, RestTemplate restTemplate, CloseableHttpClient httpClient) {
+	public ClientApi(Client client, RestTemplate restTemplate, CloseableHttpClient httpClient, Consumer<Client> failureHandler) {
 		this.client = client;
 		this.httpClient = httpClient;
 		this.restTemplate = restTemplate;
+		this.failureHandler = failureHandler;
+	}
+	
+	/**
+	 * 执行请求，连接失败或读写超时时记录客户端失败
+	 */
+	private <T> T execute(Supplier<T> supplier) {
+		try {
+			return supplier.get();
+		} catch (ResourceAccessException e) {
+			failureHandler.accept(client);
+			throw e;
+		}
 	}
 	
 	private void post(String uri, Map<String, Object> params) {
@@ -55,7 +76,7 @@ public class ClientApi implements IClientApi {
 		}
 		HttpHeaders httpHeaders = new HttpHeaders();
 		httpHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-		JSONObject resResult = restTemplate.postForObject(client.getUrl() + uri, new org.springframework.http.HttpEntity<>(body, httpHeaders), JSONObject.class);
+		JSONObject resResult = execute(() -> restTemplate.postForObject(client.getUrl() + uri, new org.springframework.http.HttpEntity<>(body, httpHeaders), JSONObject.class));
 		Assert.state(resResult != null, "请求资源服务器失败");
 		Assert.state("ok".equalsIgnoreCase(resResult.getString("status")), "请求资源服务器失败:" + resResult.getString("message"));
 		return resResult.getObject("result", type);
@@ -83,7 +104,7 @@ public class ClientApi implements IClientApi {
 		params.add("cover", cover + "");
 		HttpHeaders httpHeaders = new HttpHeaders();
 		httpHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-		ResponseEntity<ResResult> exchange = restTemplate.exchange(client.getUrl() + "/client/moveFile", HttpMethod.PUT, new org.springframework.http.HttpEntity<>(params, httpHeaders), ResResult.class, srcPathname, desPathname, cover);
+		ResponseEntity<ResResult> exchange = execute(() -> restTemplate.exchange(client.getUrl() + "/client/moveFile", HttpMethod.PUT, new org.springframework.http.HttpEntity<>(params, httpHeaders), ResResult.class, srcPathname, desPathname, cover));
 		ResResult result = exchange.getBody();
 		Assert.state(result != null && result.isSuccess(), "请求客户端失败");
 	}
@@ -113,7 +134,7 @@ public class ClientApi implements IClientApi {
 	
 	@Override
 	public ClientInfo getInfo() {
-		JSONObject forObject = restTemplate.getForObject(client.getUrl() + "/client/info", JSONObject.class);
+		JSONObject forObject = execute(() -> restTemplate.getForObject(client.getUrl() + "/client/info", JSONObject.class));
 		Assert.notNull(forObject, "请求失败");
 		return forObject.toJavaObject(ClientInfo.class);
 	}
@@ -137,7 +158,7 @@ public class ClientApi implements IClientApi {
 		params.put("getMd5", getMd5);
 		params.put("encode", encode);
 		String uri = client.getUrl() + "/client/mergeFiles";
-		JSONObject jsonObject = restTemplate.postForObject(uri, new org.springframework.http.HttpEntity<>(params), JSONObject.class);
+		JSONObject jsonObject = execute(() -> restTemplate.postForObject(uri, new org.springframework.http.HttpEntity<>(params), JSONObject.class));
 		Assert.state(jsonObject != null && "ok".equalsIgnoreCase(jsonObject.getString("status")), "合并失败:" + jsonObject);
 		log.info("合并结果：{}", jsonObject);
 		return jsonObject.getJSONObject("result").toJavaObject(MergeFileResult.class);
@@ -165,6 +186,52 @@ public class ClientApi implements IClientApi {
 			log.info("{}上传结果：{}", pathname, result);
 			ResResult resResult = JsonUtils.toObject(result, ResResult.class);
 			Assert.state(resResult.isSuccess(), "上传失败,clientMsg:" + resResult.getMessage());
+		} catch (IOException e) {
+			failureHandler.accept(client);
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+	
+	@Override
+	public void uploadStream(InputStream inputStream, String pathname, long length) throws IOException {
+		try {
+			log.info("开始上传{}...", pathname);
+			String uri = client.getUrl() + "/client/upload?pathname=" + URLEncoder.encode(pathname, "UTF-8");
+			CloseableHttpResponse response = HttpClientServletUtils.httpClientUploadStream(httpClient, uri, inputStream, length);
+			HttpEntity entity = response.getEntity();
+			Assert.notNull(entity, "客户端返回内容空");
+			String result = EntityUtils.toString(entity);
+			log.info("{}上传结果：{}", pathname, result);
+			ResResult resResult = JsonUtils.toObject(result, ResResult.class);
+			Assert.state(resResult.isSuccess(), "上传失败,clientMsg:" + resResult.getMessage());
+		} catch (IOException e) {
+			failureHandler.accept(client);
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+	
+	@Override
+	public void uploadPart(InputStream inputStream, String path, String desPathname, int chunkIndex, long partSize, long totalSize, long length) throws IOException {
+		try {
+			String uri = client.getUrl() + "/client/upload/part?path=" + URLEncoder.encode(path, "UTF-8")
+					+ "&desPathname=" + URLEncoder.encode(desPathname, "UTF-8")
+					+ "&chunkIndex=" + chunkIndex
+					+ "&partSize=" + partSize
+					+ "&totalSize=" + totalSize;
+			CloseableHttpResponse response = HttpClientServletUtils.httpClientUploadStream(httpClient, uri, inputStream, length);
+			HttpEntity entity = response.getEntity();
+			Assert.notNull(entity, "客户端返回内容空");
+			String result = EntityUtils.toString(entity);
+			log.debug("{}分片{}上传结果：{}", path, chunkIndex, result);
+			ResResult resResult = JsonUtils.toObject(result, ResResult.class);
+			Assert.state(resResult.isSuccess(), "上传失败,clientMsg:" + resResult.getMessage());
+		} catch (IOException e) {
+			failureHandler.accept(client);
+			throw e;
 		} finally {
 			IOUtils.closeQuietly(inputStream);
 		}
@@ -1,9 +1,11 @@
 package mt.spring.mos.server.service.clientapi;
 
 import mt.spring.mos.server.entity.po.Client;
+import mt.spring.mos.server.service.ClientHealthService;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
@@ -21,6 +23,9 @@ public class ClientApiFactory {
 	private RestTemplate restTemplate;
 	@Autowired
 	private CloseableHttpClient httpClient;
+	@Autowired
+	@Lazy
+	private ClientHealthService clientHealthService;
 	private final Map<String, IClientApi> cacheMap = new ConcurrentHashMap<>();
 	
 	public IClientApi getClientApi(Client client) {
@@ -29,7 +34,7 @@ public class ClientApiFactory {
 			synchronized (this) {
 				iClientApi = cacheMap.get(client.getName());
 				if (iClientApi == null) {
-					iClientApi = new ClientApi(client, restTemplate, httpClient);
+					iClientApi = new ClientApi(client, restTemplate, httpClient, clientHealthService::recordFailure);
 					cacheMap.put(client.getName(), iClientApi);
 				}
 			}
@@ -108,6 +108,30 @@ public interface IClientApi {
 	 */
 	void upload(InputStream inputStream, String pathname) throws IOException;
 	
+	/**
+	 * 以请求体流式上传，不经过multipart编码
+	 *
+	 * @param inputStream 文件流
+	 * @param pathname    文件
+	 * @param length      文件长度，-1表示未知
+	 * @throws IOException 异常
+	 */
+	void uploadStream(InputStream inputStream, String pathname, long length) throws IOException;
+	
+	/**
+	 * 预分配上传，分片按偏移直接写入预分配文件
+	 *
+	 * @param inputStream 分片流
+	 * @param path        分片目录
+	 * @param desPathname 合并后的文件
+	 * @param chunkIndex  分片序号
+	 * @param partSize    分片大小
+	 * @param totalSize   文件总大小
+	 * @param length      分片长度，-1表示未知
+	 * @throws IOException 异常
+	 */
+	void uploadPart(InputStream inputStream, String path, String desPathname, int chunkIndex, long partSize, long totalSize, long length) throws IOException;
+	
 	/**
 	 * 是否活着
 	 *
@@ -0,0 +1,55 @@
+package mt.spring.mos.server.service.cron;
+
+import mt.spring.mos.server.service.AuditPartitionService;
+import mt.spring.mos.server.service.TaskScheduleService;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/16
+ */
+@Component
+public class AuditCron extends BaseCron {
+	public AuditCron(TaskScheduleService taskScheduleService) {
+		super(taskScheduleService);
+	}
+	
+	@Autowired
+	private AuditPartitionService auditPartitionService;
+	@Autowired
+	private RedissonClient redissonClient;
+	
+	/**
+	 * 维护审计分区，多个服务端只有一个执行
+	 */
+	@Scheduled(cron = "${mos.cron.audit-partition:0 30 1 * * ?}")
+	public void maintainPartitions() {
+		RLock lock = redissonClient.getLock("mos-server:audit-partition");
+		if (!lock.tryLock()) {
+			return;
+		}
+		try {
+			auditPartitionService.maintain();
+		} catch (Exception e) {
+			log.error("审计分区维护失败：" + e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * 启动后在后台补齐分区，不阻塞启动线程
+	 */
+	@Async
+	@EventListener(ApplicationReadyEvent.class)
+	public void onReady() {
+		maintainPartitions();
+	}
+}
@@ -80,7 +80,7 @@ public abstract class AbstractRender implements ResourceRender {
 			requestHeaders.put("if-modified-since", "-1");
 			stringRedisTemplate.delete(key);
 		}
-		HttpClientServletUtils.forward(httpClient, desUrl, request, response, auditService.createAuditStream(response.getOutputStream(), content.getAudit()), requestHeaders, responseHeaders);
+		HttpClientServletUtils.forwardGetAsync(httpClient, desUrl, request, response, requestHeaders, responseHeaders, auditService.createAuditCallback(content.getAudit()));
 		return null;
 	}
 }
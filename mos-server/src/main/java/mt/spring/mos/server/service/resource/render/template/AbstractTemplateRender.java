@@ -5,6 +5,7 @@ import mt.spring.mos.server.entity.po.Audit;
 import mt.spring.mos.server.entity.po.Bucket;
 import mt.spring.mos.server.entity.po.Resource;
 import mt.spring.mos.server.service.AuditService;
+import mt.spring.mos.server.service.RenderCacheService;
 import mt.spring.mos.server.service.resource.render.AbstractRender;
 import mt.spring.mos.server.service.resource.render.Content;
 import mt.utils.http.MyHttp;
@@ -26,6 +27,8 @@ import java.nio.charset.StandardCharsets;
 public abstract class AbstractTemplateRender extends AbstractRender {
 	@Autowired
 	private AuditService auditService;
+	@Autowired
+	private RenderCacheService renderCacheService;
 	protected final DefaultUriBuilderFactory uriFactory = new DefaultUriBuilderFactory();
 	
 	public abstract String getTemplatePath();
@@ -65,12 +68,15 @@ public abstract class AbstractTemplateRender extends AbstractRender {
 			}
 		}
 		
-		MyHttp myHttp = new MyHttp(uriFactory.expand(desUrl).toString());
 		if (StringUtils.isBlank(charset)) {
 			charset = "UTF-8";
 		}
-		myHttp.setEncode(charset);
-		return myHttp.connect();
+		String encode = charset;
+		return renderCacheService.getContent(resource.getFileHouseId(), encode, () -> {
+			MyHttp myHttp = new MyHttp(uriFactory.expand(desUrl).toString());
+			myHttp.setEncode(encode);
+			return myHttp.connect();
+		});
 	}
 	
 	@Override
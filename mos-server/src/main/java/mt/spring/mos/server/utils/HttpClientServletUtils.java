@@ -1,5 +1,6 @@
 package mt.spring.mos.server.utils;
 
+import mt.spring.mos.base.utils.BufferPool;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
@@ -22,7 +23,7 @@ import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 
-import javax.servlet.ServletOutputStream;
+import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
@@ -33,6 +34,7 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 
 public class HttpClientServletUtils {
@@ -55,6 +57,23 @@ public class HttpClientServletUtils {
 		}
 	}
 	
+	/**
+	 * 以请求体直接转发文件流，长度未知时使用chunked传输，不在本地缓存
+	 *
+	 * @param length 文件长度，-1表示未知
+	 */
+	public static CloseableHttpResponse httpClientUploadStream(CloseableHttpClient httpClient, String url, InputStream inputStream, long length) throws IOException {
+		HttpPut httpPut = new HttpPut(url);
+		InputStreamEntity entity = new InputStreamEntity(inputStream, length, ContentType.APPLICATION_OCTET_STREAM);
+		entity.setChunked(length < 0);
+		httpPut.setEntity(entity);
+		try {
+			return httpClient.execute(httpPut);
+		} finally {
+			inputStream.close();
+		}
+	}
+	
 	public static CloseableHttpResponse httpClientUploadFiles(CloseableHttpClient httpClient, String url, InputStream[] inputStreams, String[] pathnames) throws IOException {
 		HttpPost httpPost = new HttpPost(url);
 		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
@@ -210,14 +229,16 @@ public class HttpClientServletUtils {
 			contentType = ContentType.parse(request.getContentType());
 		}
 		HttpEntity entity = new InputStreamEntity(request.getInputStream(), request.getContentLength(), contentType);
-		MultiValueMap<String, String> headers = getRequestHeaders(request);
+		MultiValueMap<String, String> headers = getRequestHeaders(request, requestHeaders);
 		MultiValueMap<String, String> queryParams = getQueryParams(request);
-		MultiValueMap<String, String> formParams = getFormParams(request, queryParams);
-		if (requestHeaders != null) {
-			for (Map.Entry<String, String> stringStringEntry : requestHeaders.entrySet()) {
-				headers.set(stringStringEntry.getKey().toLowerCase(), stringStringEntry.getValue());
-			}
+		if (isWithoutBody(request)) {
+			//GET请求不需要解析表单和multipart
+			HttpRequest httpRequest = buildHttpRequest(request.getMethod().toUpperCase(), uri, entity, headers, queryParams, request);
+			CloseableHttpResponse closeableHttpResponse = forwardRequest(httpclient, getHttpHost(uri.toURL()), httpRequest);
+			writeResponse(closeableHttpResponse, request, response, outputStream, responseHeaders);
+			return;
 		}
+		MultiValueMap<String, String> formParams = getFormParams(request, queryParams);
 		if (formParams.size() > 0) {
 			entity = new StringEntity(concatPostBody(formParams, true), contentType);
 		}
@@ -247,9 +268,172 @@ public class HttpClientServletUtils {
 		writeResponse(closeableHttpResponse, request, response, outputStream, responseHeaders);
 	}
 	
-	public static void writeResponse(CloseableHttpResponse closeableHttpResponse, HttpServletRequest request, HttpServletResponse response, OutputStream outputStream, @Nullable Map<String, String> responseHeaders) throws Exception {
+	private static boolean isWithoutBody(HttpServletRequest request) {
+		return "GET".equalsIgnoreCase(request.getMethod()) || "HEAD".equalsIgnoreCase(request.getMethod());
+	}
+	
+	private static MultiValueMap<String, String> getRequestHeaders(HttpServletRequest request, @Nullable Map<String, String> requestHeaders) {
+		MultiValueMap<String, String> headers = getRequestHeaders(request);
+		if (requestHeaders != null) {
+			for (Map.Entry<String, String> stringStringEntry : requestHeaders.entrySet()) {
+				headers.set(stringStringEntry.getKey().toLowerCase(), stringStringEntry.getValue());
+			}
+		}
+		return headers;
+	}
+	
+	public interface ForwardCallback {
+		void onComplete(long bytes);
+		
+		void onError(long bytes, Throwable e);
+		
+		/**
+		 * 每次写出后回调，只应做内存操作
+		 */
+		default void onProgress(long bytes) {
+		}
+	}
+	
+	/**
+	 * 异步转发GET请求，基于Servlet 3.1非阻塞输出：
+	 * 只有下游可写时才从上游读取，下载期间不占用容器线程
+	 */
+	public static void forwardGetAsync(CloseableHttpClient httpclient, String url, HttpServletRequest request, HttpServletResponse response, @Nullable Map<String, String> requestHeaders, @Nullable Map<String, String> responseHeaders, ForwardCallback callback) throws Exception {
+		uriFactory.setEncodingMode(DefaultUriBuilderFactory.EncodingMode.URI_COMPONENT);
+		URI uri = uriFactory.expand(url);
+		MultiValueMap<String, String> headers = getRequestHeaders(request, requestHeaders);
+		HttpRequest httpRequest = buildHttpRequest("GET", uri, null, headers, getQueryParams(request), request);
+		CloseableHttpResponse closeableHttpResponse = null;
+		InputStream content = null;
+		AsyncContext asyncContext = null;
+		AsyncCopier asyncCopier = null;
+		try {
+			closeableHttpResponse = forwardRequest(httpclient, getHttpHost(uri.toURL()), httpRequest);
+			writeResponseHeaders(closeableHttpResponse, response, responseHeaders);
+			HttpEntity entity = closeableHttpResponse.getEntity();
+			if (entity == null) {
+				closeableHttpResponse.close();
+				callback.onComplete(0);
+				return;
+			}
+			content = entity.getContent();
+			if (isGzipRequest(request)) {
+				content = handleGzipStream(content);
+			}
+			if (response.getCharacterEncoding() == null) {
+				response.setCharacterEncoding("UTF-8");
+			}
+			asyncContext = request.startAsync();
+			//下载时长不固定，由连接的读写超时控制
+			asyncContext.setTimeout(0);
+			asyncCopier = new AsyncCopier(asyncContext, response.getOutputStream(), content, closeableHttpResponse, callback);
+			asyncContext.addListener(asyncCopier);
+			response.getOutputStream().setWriteListener(asyncCopier);
+		} catch (Exception e) {
+			if (asyncCopier != null) {
+				//已进入异步模式，没有超时兜底，由copier释放资源并结束请求
+				asyncCopier.finish(e);
+				throw e;
+			}
+			IOUtils.closeQuietly(content);
+			IOUtils.closeQuietly(closeableHttpResponse);
+			callback.onError(0, e);
+			if (asyncContext != null) {
+				try {
+					asyncContext.complete();
+				} catch (IllegalStateException ignored) {
+				}
+			}
+			throw e;
+		}
+	}
+	
+	private static class AsyncCopier implements WriteListener, AsyncListener {
+		private final AsyncContext asyncContext;
+		private final ServletOutputStream outputStream;
+		private final InputStream content;
+		private final CloseableHttpResponse closeableHttpResponse;
+		private final ForwardCallback callback;
+		private final BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE);
+		private final byte[] buffer = pooledBuffer.get();
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private long bytes;
+		
+		AsyncCopier(AsyncContext asyncContext, ServletOutputStream outputStream, InputStream content, CloseableHttpResponse closeableHttpResponse, ForwardCallback callback) {
+			this.asyncContext = asyncContext;
+			this.outputStream = outputStream;
+			this.content = content;
+			this.closeableHttpResponse = closeableHttpResponse;
+			this.callback = callback;
+		}
+		
+		@Override
+		public void onWritePossible() throws IOException {
+			while (outputStream.isReady()) {
+				int read = content.read(buffer);
+				if (read == -1) {
+					finish(null);
+					return;
+				}
+				outputStream.write(buffer, 0, read);
+				bytes += read;
+				callback.onProgress(bytes);
+			}
+		}
+		
+		@Override
+		public void onError(Throwable t) {
+			finish(t);
+		}
+		
+		private void finish(@Nullable Throwable t) {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			IOUtils.closeQuietly(content);
+			IOUtils.closeQuietly(closeableHttpResponse);
+			pooledBuffer.close();
+			try {
+				if (t == null) {
+					callback.onComplete(bytes);
+				} else {
+					callback.onError(bytes, t);
+				}
+			} finally {
+				try {
+					asyncContext.complete();
+				} catch (IllegalStateException ignored) {
+				}
+			}
+		}
+		
+		@Override
+		public void onComplete(AsyncEvent event) {
+			finish(null);
+		}
+		
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			finish(event.getThrowable());
+		}
+		
+		@Override
+		public void onError(AsyncEvent event) {
+			finish(event.getThrowable());
+		}
+		
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+	
+	private static void writeResponseHeaders(CloseableHttpResponse closeableHttpResponse, HttpServletResponse response, @Nullable Map<String, String> responseHeaders) {
 		Header[] allHeaders = closeableHttpResponse.getAllHeaders();
 		for (Header header : allHeaders) {
+			if (isValidatorHeader(header.getName()) && response.containsHeader(header.getName())) {
+				//服务端已根据元数据设置了ETag、Last-Modified
+				continue;
+			}
 			if (!"Content-Encoding".equalsIgnoreCase(header.getName())) {
 				response.addHeader(header.getName(), header.getValue());
 			}
@@ -260,6 +444,10 @@ public class HttpClientServletUtils {
 				response.setHeader(stringStringEntry.getKey(), stringStringEntry.getValue());
 			}
 		}
+	}
+	
+	public static void writeResponse(CloseableHttpResponse closeableHttpResponse, HttpServletRequest request, HttpServletResponse response, OutputStream outputStream, @Nullable Map<String, String> responseHeaders) throws Exception {
+		writeResponseHeaders(closeableHttpResponse, response, responseHeaders);
 		HttpEntity entity = closeableHttpResponse.getEntity();
 		if (entity != null) {
 			InputStream content = entity.getContent();
@@ -370,6 +558,10 @@ public class HttpClientServletUtils {
 		return characterEncoding != null && characterEncoding.contains("gzip");
 	}
 	
+	private static boolean isValidatorHeader(String headerName) {
+		return "ETag".equalsIgnoreCase(headerName) || "Last-Modified".equalsIgnoreCase(headerName);
+	}
+	
 	public static boolean isIncludedHeader(String headerName, boolean addHost) {
 		switch (headerName) {
 			case "host":
@@ -382,16 +574,22 @@ public class HttpClientServletUtils {
 			case "transfer-encoding":
 			case "x-application-context":
 				return false;
+			case "if-none-match":
+			case "if-modified-since":
+				//条件请求由服务端根据元数据处理
+				return false;
 			default:
 				return true;
 		}
 	}
 	
 	public static void writeResponse(InputStream zin, OutputStream out) throws Exception {
-		byte[] bytes = new byte[8096];
-		int bytesRead;
-		while ((bytesRead = zin.read(bytes)) != -1) {
-			out.write(bytes, 0, bytesRead);
+		try (BufferPool.PooledBuffer<byte[]> pooledBuffer = BufferPool.acquireHeap(BufferPool.COPY_BUFFER_SIZE)) {
+			byte[] bytes = pooledBuffer.get();
+			int bytesRead;
+			while ((bytesRead = zin.read(bytes)) != -1) {
+				out.write(bytes, 0, bytesRead);
+			}
 		}
 	}
 	
@@ -400,7 +598,30 @@ public class HttpClientServletUtils {
 	}
 	
 	public static CloseableHttpResponse forwardRequest(CloseableHttpClient httpclient, HttpHost httpHost, HttpRequest httpRequest) throws IOException {
-		return httpclient.execute(httpHost, httpRequest);
+		try {
+			return httpclient.execute(httpHost, httpRequest);
+		} catch (IOException e) {
+			ForwardFailureListener listener = forwardFailureListener;
+			if (listener != null) {
+				listener.onFailure(httpHost, e);
+			}
+			throw e;
+		}
+	}
+	
+	public interface ForwardFailureListener {
+		/**
+		 * 转发请求连接或读取失败
+		 *
+		 * @param httpHost 转发的目标
+		 */
+		void onFailure(HttpHost httpHost, IOException e);
+	}
+	
+	private static volatile ForwardFailureListener forwardFailureListener;
+	
+	public static void setForwardFailureListener(@Nullable ForwardFailureListener listener) {
+		forwardFailureListener = listener;
 	}
 	
 	private static String buildQueryParam(MultiValueMap<String, String> params) {
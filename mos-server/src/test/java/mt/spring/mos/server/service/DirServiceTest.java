@@ -0,0 +1,129 @@
+package mt.spring.mos.server.service;
+
+import mt.spring.mos.server.dao.DirMapper;
+import mt.spring.mos.server.entity.po.Audit;
+import mt.spring.mos.server.entity.po.Dir;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/24
+ */
+public class DirServiceTest {
+	private static final Long BUCKET_ID = 1L;
+	private DirService dirService;
+	private DirMapper dirMapper;
+	private AuditService auditService;
+	private final AtomicLong ids = new AtomicLong(100);
+	
+	@Before
+	public void setUp() {
+		dirMapper = mock(DirMapper.class);
+		auditService = mock(AuditService.class);
+		when(dirMapper.insertOrGetId(any(Dir.class))).thenAnswer(invocation -> {
+			Dir dir = invocation.getArgument(0);
+			dir.setId(ids.incrementAndGet());
+			return 1;
+		});
+		dirService = spy(new DirService());
+		ReflectionTestUtils.setField(dirService, "dirMapper", dirMapper);
+		ReflectionTestUtils.setField(dirService, "auditService", auditService);
+	}
+	
+	private Dir dir(Long id, String path, Long parentId) {
+		Dir dir = new Dir();
+		dir.setId(id);
+		dir.setPath(path);
+		dir.setParentId(parentId);
+		dir.setBucketId(BUCKET_ID);
+		return dir;
+	}
+	
+	private void existing(Dir... dirs) {
+		doReturn(new ArrayList<>(Arrays.asList(dirs))).when(dirService).findByFilters(anyList());
+	}
+	
+	private List<Dir> inserted() {
+		ArgumentCaptor<Dir> captor = ArgumentCaptor.forClass(Dir.class);
+		verify(dirMapper, atLeast(0)).insertOrGetId(captor.capture());
+		return captor.getAllValues();
+	}
+	
+	@Test
+	public void testExistingDir() {
+		Dir dir = dir(2L, "/a", 1L);
+		existing(dir(1L, "/", null), dir);
+		assertSame(dir, dirService.addDir("/a/", BUCKET_ID));
+		verify(dirMapper, never()).insertOrGetId(any());
+		verify(auditService, never()).doAudit(anyLong(), anyString(), any(), any());
+	}
+	
+	@Test
+	public void testNestedFromEmptyBucket() {
+		existing();
+		Dir dir = dirService.addDir("a/b/c", BUCKET_ID);
+		List<Dir> inserted = inserted();
+		assertEquals(4, inserted.size());
+		assertEquals(Arrays.asList("/", "/a", "/a/b", "/a/b/c"), Arrays.asList(inserted.get(0).getPath(), inserted.get(1).getPath(), inserted.get(2).getPath(), inserted.get(3).getPath()));
+		assertNull(inserted.get(0).getParentId());
+		for (int i = 1; i < inserted.size(); i++) {
+			//上级先写入，下级写入时已知上级id
+			assertEquals(inserted.get(i - 1).getId(), inserted.get(i).getParentId());
+		}
+		assertSame(inserted.get(3), dir);
+		assertEquals(BUCKET_ID, dir.getBucketId());
+		verify(auditService, times(4)).doAudit(eq(BUCKET_ID), anyString(), eq(Audit.Type.WRITE), eq(Audit.Action.addDir));
+	}
+	
+	@Test
+	public void testPartiallyExisting() {
+		existing(dir(1L, "/", null), dir(2L, "/a", 1L));
+		Dir dir = dirService.addDir("/a/b/c", BUCKET_ID);
+		List<Dir> inserted = inserted();
+		assertEquals(2, inserted.size());
+		assertEquals("/a/b", inserted.get(0).getPath());
+		assertEquals(Long.valueOf(2L), inserted.get(0).getParentId());
+		assertEquals("/a/b/c", inserted.get(1).getPath());
+		assertEquals(inserted.get(0).getId(), inserted.get(1).getParentId());
+		assertSame(inserted.get(1), dir);
+		verify(auditService).doAudit(BUCKET_ID, "/a/b", Audit.Type.WRITE, Audit.Action.addDir);
+		verify(auditService).doAudit(BUCKET_ID, "/a/b/c", Audit.Type.WRITE, Audit.Action.addDir);
+	}
+	
+	@Test
+	public void testCreatedConcurrently() {
+		//快照里没有，其他事务刚提交的路径由唯一索引返回已有的id
+		existing(dir(1L, "/", null));
+		doAnswer(invocation -> {
+			Dir dir = invocation.getArgument(0);
+			dir.setId(7L);
+			return 1;
+		}).when(dirMapper).insertOrGetId(argThat(dir -> dir != null && "/a".equals(dir.getPath())));
+		Dir dir = dirService.addDir("/a/b", BUCKET_ID);
+		assertEquals(Long.valueOf(7L), dir.getParentId());
+		assertEquals("/a/b", dir.getPath());
+	}
+	
+	@Test
+	public void testRoot() {
+		existing();
+		Dir dir = dirService.addDir("/", BUCKET_ID);
+		assertEquals("/", dir.getPath());
+		assertNull(dir.getParentId());
+		List<Dir> inserted = inserted();
+		assertEquals(1, inserted.size());
+		assertSame(inserted.get(0), dir);
+	}
+}
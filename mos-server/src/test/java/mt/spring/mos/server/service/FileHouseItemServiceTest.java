@@ -0,0 +1,56 @@
+package mt.spring.mos.server.service;
+
+import mt.spring.mos.server.entity.MosServerProperties;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/23
+ */
+public class FileHouseItemServiceTest {
+	private FileHouseItemService fileHouseItemService;
+	private UploadSessionService uploadSessionService;
+	
+	@Before
+	public void setUp() {
+		uploadSessionService = mock(UploadSessionService.class);
+		when(uploadSessionService.getSession(anyLong(), any())).thenReturn(new UploadSessionService.UploadSession());
+		MosServerProperties mosServerProperties = new MosServerProperties();
+		mosServerProperties.setUploadReportWaitMills(100L);
+		fileHouseItemService = new FileHouseItemService();
+		ReflectionTestUtils.setField(fileHouseItemService, "uploadSessionService", uploadSessionService);
+		ReflectionTestUtils.setField(fileHouseItemService, "mosServerProperties", mosServerProperties);
+	}
+	
+	@Test
+	public void testWaitForChunksAlreadyComplete() throws InterruptedException {
+		when(uploadSessionService.countChunks(1L)).thenReturn(3);
+		fileHouseItemService.waitForChunks(1L, 3);
+		verify(uploadSessionService, never()).awaitChunks(anyLong(), anyInt(), anyLong());
+	}
+	
+	@Test
+	public void testWaitForChunksReported() throws InterruptedException {
+		when(uploadSessionService.countChunks(1L)).thenReturn(2);
+		when(uploadSessionService.awaitChunks(1L, 3, 100L)).thenReturn(true);
+		fileHouseItemService.waitForChunks(1L, 3);
+	}
+	
+	@Test
+	public void testWaitForChunksTimeout() throws InterruptedException {
+		when(uploadSessionService.countChunks(1L)).thenReturn(2);
+		when(uploadSessionService.awaitChunks(1L, 3, 100L)).thenReturn(false);
+		try {
+			fileHouseItemService.waitForChunks(1L, 3);
+			fail("分片不完整时应合并失败");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("已上传分片数：2"));
+		}
+	}
+}
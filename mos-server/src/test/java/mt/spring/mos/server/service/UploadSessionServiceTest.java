@@ -0,0 +1,75 @@
+package mt.spring.mos.server.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.redisson.api.RBitSet;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.MessageListener;
+import org.redisson.client.codec.Codec;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Author Martin
+ * @Date 2021/1/23
+ */
+public class UploadSessionServiceTest {
+	private UploadSessionService uploadSessionService;
+	private RBitSet bitSet;
+	private RTopic topic;
+	private final AtomicReference<MessageListener<String>> listener = new AtomicReference<>();
+	
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		RedissonClient redissonClient = mock(RedissonClient.class);
+		bitSet = mock(RBitSet.class);
+		topic = mock(RTopic.class);
+		when(redissonClient.getBitSet(anyString())).thenReturn(bitSet);
+		when(redissonClient.getTopic(anyString(), any(Codec.class))).thenReturn(topic);
+		when(topic.addListener(eq(String.class), any(MessageListener.class))).thenAnswer(invocation -> {
+			listener.set(invocation.getArgument(1));
+			return 1;
+		});
+		uploadSessionService = new UploadSessionService();
+		ReflectionTestUtils.setField(uploadSessionService, "redissonClient", redissonClient);
+	}
+	
+	@Test
+	public void testAlreadyComplete() throws InterruptedException {
+		when(bitSet.cardinality()).thenReturn(2L);
+		assertTrue(uploadSessionService.awaitChunks(1L, 2, 1000));
+		verify(topic, never()).addListener(eq(String.class), any(MessageListener.class));
+	}
+	
+	@Test
+	public void testTimeout() throws InterruptedException {
+		when(bitSet.cardinality()).thenReturn(1L);
+		long start = System.currentTimeMillis();
+		assertFalse(uploadSessionService.awaitChunks(1L, 2, 200));
+		assertTrue(System.currentTimeMillis() - start >= 200);
+		verify(topic).removeListener(1);
+	}
+	
+	@Test
+	public void testNotified() throws InterruptedException {
+		when(bitSet.cardinality()).thenReturn(1L, 1L, 2L);
+		new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException ignored) {
+			}
+			listener.get().onMessage("topic", "1");
+		}).start();
+		long start = System.currentTimeMillis();
+		assertTrue(uploadSessionService.awaitChunks(1L, 2, 10000));
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		verify(topic).removeListener(1);
+	}
+}